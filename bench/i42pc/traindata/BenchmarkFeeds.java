@@ -0,0 +1,77 @@
+package i42pc.traindata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <p>This class contains the helpers shared by the benchmarks: reading a feed and discarding the exported bytes.</p>
+ * <p>The folder of the feed is a parameter of every benchmark ({@code -p folder=...}): by default it's the bundled {@code input/} folder.
+ */
+class BenchmarkFeeds {
+	public static final String DEFAULT_FOLDER = "input";
+	public static final String PROFILES_FOLDER = "profiles";
+
+	/**
+	 * Reads all of the files of a feed
+	 * @param folder The folder containing the files
+	 * @return The FileList containing all of the files
+	 * @throws IllegalStateException If the files can't be read
+	 */
+	public static FileList read(String folder) {
+		FileList fileList = new FileList(folder);
+		if (!fileList.readAllFiles())
+			throw new IllegalStateException("The files in " + folder + " can't be read");
+		return fileList;
+	}
+
+	/**
+	 * Checks that a feed contains some files, before reading it
+	 * @param folder The folder containing the files
+	 * @param fileNames The names of the files needed
+	 * @throws IllegalStateException If one of the files is missing
+	 */
+	public static void requireFiles(String folder, String... fileNames) {
+		for (String fileName : fileNames) {
+			if (!new File(folder, fileName).isFile())
+				throw new IllegalStateException(folder + " has no " + fileName + ": run this benchmark with -p folder=<complete feed>");
+		}
+	}
+
+	/**
+	 * Reads one of the profiles in the profiles folder (see {@link ExportProfile})
+	 * @param name The name of the profile, without the extension
+	 * @return The profile
+	 * @throws IllegalStateException If the profile can't be read
+	 */
+	public static ExportProfile profile(String name) {
+		try {
+			return ExportProfile.load(new File(PROFILES_FOLDER, name + ".properties"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Stream discarding every byte written, so that the exports measure the rendering and not the disk
+	 */
+	static class NullOutputStream extends OutputStream {
+		private long count = 0;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+		/**
+		 * Returns the number of bytes written
+		 * @return The number of bytes
+		 */
+		public long getCount() {
+			return count;
+		}
+	}
+}
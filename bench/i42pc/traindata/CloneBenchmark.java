@@ -0,0 +1,64 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Benchmark of the filtering of a file: {@link FileData#cloneWithSomeValues(String, String)}, cycling through all of the distinct values of a column.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CloneBenchmark {
+	@Param({BenchmarkFeeds.DEFAULT_FOLDER})
+	public String folder;
+
+	@Param({"trips.txt"})
+	public String fileName;
+
+	@Param({"service_id", "route_id"})
+	public String title;
+
+	private FileData file;
+	private String[] values;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		file = BenchmarkFeeds.read(folder).getFile(fileName);
+		if (file == null)
+			throw new IllegalStateException(fileName + " doesn't exist in " + folder);
+		int column = file.getTitleIndex(title);
+		if (column == -1)
+			throw new IllegalStateException(fileName + " has no title " + title);
+		LinkedHashSet<String> distinct = new LinkedHashSet<String>();
+		RowView row = file.newRowView();
+		for (int rowId = 0; rowId < file.getRowCount(); rowId++) {
+			distinct.add(row.moveTo(rowId).get(column));
+		}
+		values = new ArrayList<String>(distinct).toArray(new String[0]);
+	}
+
+	@Benchmark
+	public FileData cloneWithSomeValues() {
+		String value = values[next];
+		next = (next + 1) % values.length;
+		return file.cloneWithSomeValues(value, title);
+	}
+}
@@ -0,0 +1,64 @@
+package i42pc.traindata;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Benchmark of the export: {@link XMLFileWriter#printAll(String)} for the three exercise profiles in the profiles folder,
+ * writing to a stream which discards the bytes.</p>
+ * <p>The profiles need {@code stop_times.txt} and {@code calendar_dates.txt}, which aren't in the bundled {@code input/} folder:
+ * run it with {@code -p folder=...} pointing to a complete feed. It's left out of the default run of all the benchmarks (see {@code bench/README.md}).</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExportBenchmark {
+	@Param({BenchmarkFeeds.DEFAULT_FOLDER})
+	public String folder;
+
+	@Param({"one", "two", "three"})
+	public String profileName;
+
+	@Param({"0", "16777216"})
+	public int fragmentCacheSize;
+
+	@Param({"1"})
+	public int threads;
+
+	private FileList fileList;
+	private ExportProfile profile;
+
+	@Setup
+	public void setup() {
+		BenchmarkFeeds.requireFiles(folder, "stop_times.txt", "calendar_dates.txt");
+		fileList = BenchmarkFeeds.read(folder);
+		profile = BenchmarkFeeds.profile(profileName);
+		if (!profile.applyTo(fileList))
+			throw new IllegalStateException(profileName + ": invalid setting " + profile.getInvalidSetting());
+	}
+
+	@Benchmark
+	public long printAll() {
+		BenchmarkFeeds.NullOutputStream out = new BenchmarkFeeds.NullOutputStream();
+		XMLFileWriter writer = new XMLFileWriter(fileList, new FastXMLEmitter(out));
+		if (fragmentCacheSize > 0)
+			writer.enableFragmentCache(fragmentCacheSize);
+		if (!writer.printAll(profile.getRootTag(), threads))
+			throw new IllegalStateException(profileName + " can't be exported");
+		return out.getCount();
+	}
+}
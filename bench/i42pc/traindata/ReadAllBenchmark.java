@@ -0,0 +1,43 @@
+package i42pc.traindata;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Benchmark of the ingest of a whole folder: {@link FileList#readAllFiles(int)}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadAllBenchmark {
+	@Param({BenchmarkFeeds.DEFAULT_FOLDER})
+	public String folder;
+
+	@Param({"false", "true"})
+	public boolean memoryMapped;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	@Benchmark
+	public FileList readAllFiles() {
+		FileList fileList = new FileList(folder);
+		fileList.setMemoryMapped(memoryMapped);
+		if (!fileList.readAllFiles(threads))
+			throw new IllegalStateException("The files in " + folder + " can't be read");
+		return fileList;
+	}
+}
@@ -0,0 +1,59 @@
+package i42pc.traindata;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Benchmark of the ingest of a single file: {@link XMLFileReader#readAll()}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadFileBenchmark {
+	@Param({BenchmarkFeeds.DEFAULT_FOLDER})
+	public String folder;
+
+	@Param({"agency.txt", "calendar.txt", "routes.txt", "stops.txt", "trips.txt"})
+	public String fileName;
+
+	@Param({"true", "false"})
+	public boolean fastParsing;
+
+	@Param({"false", "true"})
+	public boolean memoryMapped;
+
+	private File file;
+
+	@Setup
+	public void setup() {
+		file = new File(folder, fileName);
+		if (!file.isFile())
+			throw new IllegalStateException(file + " doesn't exist");
+	}
+
+	@Benchmark
+	public FileData readAll() {
+		XMLFileReader reader = new XMLFileReader();
+		reader.setFile(file);
+		reader.setFastParsing(fastParsing);
+		reader.setMemoryMapped(memoryMapped);
+		if (!reader.readAll())
+			throw new IllegalStateException(file + " can't be read");
+		return reader.returnData();
+	}
+}
@@ -0,0 +1,37 @@
+package i42pc.traindata;
+
+import java.io.IOException;
+
+/**
+ * <p>This interface represents an {@link XMLEmitter} able to capture the bytes of a part of the document (a fragment) and to write them again later.</p>
+ * <p>A fragment must contain whole elements only: every element started inside it must be closed inside it.<br>
+ * Fragments can be nested: {@link #endFragment()} always ends the last fragment begun.
+ */
+public interface CapturingXMLEmitter extends XMLEmitter {
+
+	/**
+	 * Starts capturing the bytes written from now on
+	 * @throws IOException If the output can't be written
+	 */
+	public void beginFragment() throws IOException;
+
+	/**
+	 * Stops capturing the last fragment begun and returns its bytes (they are written to the document as usual)
+	 * @return The bytes written since the matching {@link #beginFragment()}
+	 * @throws IOException If the output can't be written
+	 */
+	public byte[] endFragment() throws IOException;
+
+	/**
+	 * Checks if a fragment is being captured
+	 * @return True if {@link #beginFragment()} has been called more times than {@link #endFragment()}
+	 */
+	public boolean isCapturing();
+
+	/**
+	 * Writes to the document a fragment captured before
+	 * @param fragment The bytes of the fragment
+	 * @throws IOException If the output can't be written
+	 */
+	public void writeFragment(byte[] fragment) throws IOException;
+}
@@ -0,0 +1,120 @@
+package i42pc.traindata;
+
+/**
+ * <p>This class represents a single column of the table of a {@link FileData} object.</p>
+ * <p>Every column is dictionary-encoded: every distinct value has an int code, and every cell is stored as the code of its value.
+ * The implementations differ in how the distinct values themselves are kept:<br>
+ * <ul>
+ * <li>{@link DictionaryColumn} keeps them as Strings</li>
+ * <li>{@link SliceColumn} keeps them as slices of a memory-mapped file</li>
+ * <li>The typed columns ({@link FlagColumn}, {@link IntColumn}, {@link DecimalColumn}) keep them as primitives, see {@link ColumnType}:
+ * they are read-only, and their codes follow the order of the values</li>
+ * </ul>
+ */
+abstract class Column {
+
+	/**
+	 * Adds a new cell at the end of the column
+	 * @param value The value of the new cell
+	 */
+	public abstract void add(String value);
+
+	/**
+	 * Returns the value of a cell
+	 * @param row The position of the cell in the column
+	 * @return The value of the cell
+	 */
+	public String get(int row) {
+		return getValue(getCode(row));
+	}
+
+	/**
+	 * Returns the dictionary code of a cell
+	 * @param row The position of the cell in the column
+	 * @return The code of the value of the cell
+	 */
+	public abstract int getCode(int row);
+
+	/**
+	 * Returns the value corresponding to a dictionary code
+	 * @param code The code of the value
+	 * @return The value
+	 */
+	public abstract String getValue(int code);
+
+	/**
+	 * Returns the dictionary code of a given value
+	 * @param value The searched value
+	 * @return The code of the value, or -1 if no cell of the column contains it
+	 */
+	public abstract int findCode(String value);
+
+	/**
+	 * Returns the number of distinct values in the column
+	 * @return The size of the dictionary
+	 */
+	public abstract int getDictionarySize();
+
+	/**
+	 * Returns the number of cells in the column
+	 * @return The number of cells
+	 */
+	public abstract int size();
+
+	/**
+	 * Returns a new column containing only some of the cells of this one, with a dictionary of its own
+	 * @param rows The positions of the cells to be copied, in the desired order
+	 * @return The new column
+	 */
+	public Column select(int[] rows) {
+		DictionaryColumn out = new DictionaryColumn();
+		for (int row : rows) {
+			out.add(get(row));
+		}
+		out.trim();
+		return out;
+	}
+
+	/**
+	 * Returns the type of the values of the column
+	 * @return The type, {@link ColumnType#TEXT} for the columns keeping Strings
+	 */
+	public ColumnType getType() {
+		return ColumnType.TEXT;
+	}
+
+	/**
+	 * Returns the value of a cell as an int, without parsing it
+	 * @param row The position of the cell in the column
+	 * @return The value: for {@link ColumnType#TIME} the seconds from midnight, for {@link ColumnType#FLAG} 0 or 1
+	 * @throws UnsupportedOperationException If the column isn't a {@link ColumnType#FLAG}, {@link ColumnType#INTEGER} or {@link ColumnType#TIME} one
+	 */
+	public int getInt(int row) {
+		throw new UnsupportedOperationException("The column isn't an integer one: " + getType());
+	}
+
+	/**
+	 * Returns the value of a cell as a double, without parsing it
+	 * @param row The position of the cell in the column
+	 * @return The value (see {@link #getInt(int)} for the integer columns)
+	 * @throws UnsupportedOperationException If the column is a {@link ColumnType#TEXT} one
+	 */
+	public double getDouble(int row) {
+		return getInt(row);
+	}
+
+	/**
+	 * Returns the value corresponding to a dictionary code as a double, without parsing it
+	 * @param code The code of the value
+	 * @return The value (see {@link #getDouble(int)})
+	 * @throws UnsupportedOperationException If the column is a {@link ColumnType#TEXT} one
+	 */
+	public double getDoubleValue(int code) {
+		throw new UnsupportedOperationException("The column isn't a typed one: " + getType());
+	}
+
+	/**
+	 * Releases the unused capacity of the column: it should be called once no more cells will be added
+	 */
+	public abstract void trim();
+}
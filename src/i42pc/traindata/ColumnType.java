@@ -0,0 +1,59 @@
+package i42pc.traindata;
+
+/**
+ * <p>This enum represents the type of the values of a {@link Column}.</p>
+ * <p>A typed column keeps its values as primitives instead of Strings, but it gives back exactly the same text for every cell:
+ * a column gets a type only if every one of its values is written in the canonical form of the type.<br>
+ * <ul>
+ * <li>{@link #TEXT}: any value, kept as a String (see {@link DictionaryColumn})</li>
+ * <li>{@link #FLAG}: only {@code 0} and {@code 1}, like the weekday flags of calendar.txt, kept as bits (see {@link FlagColumn})</li>
+ * <li>{@link #INTEGER}: integers without leading zeros fitting in an int, like the dates of calendar.txt, kept as ints (see {@link IntColumn})</li>
+ * <li>{@link #TIME}: times as {@code HH:MM:SS}, like the ones of stop_times.txt, kept as seconds from midnight (see {@link IntColumn})</li>
+ * <li>{@link #DECIMAL}: plain decimal numbers, like the coordinates of stops.txt, kept as doubles along with their number of decimal digits (see {@link DecimalColumn})</li>
+ * </ul>
+ */
+public enum ColumnType {
+	TEXT, FLAG, INTEGER, TIME, DECIMAL;
+
+	/**
+	 * The types tried by {@link #infer(Column)}, in order
+	 */
+	private static final ColumnType[] INFERRED = {FLAG, INTEGER, TIME, DECIMAL};
+
+	/**
+	 * Converts a column to this type
+	 * @param column The column to be converted
+	 * @return The typed column, or null if some values of the column can't be kept exactly with this type
+	 * (for {@link #TEXT}, the column itself)
+	 */
+	Column convert(Column column) {
+		if (column.getType() == this)
+			return column;
+		switch (this) {
+		case FLAG:
+			return FlagColumn.convert(column);
+		case INTEGER:
+			return IntColumn.convert(column, false);
+		case TIME:
+			return IntColumn.convert(column, true);
+		case DECIMAL:
+			return DecimalColumn.convert(column);
+		default:
+			return column;
+		}
+	}
+
+	/**
+	 * Converts a column to the first type able to keep all of its values exactly, trying {@link #FLAG}, {@link #INTEGER}, {@link #TIME} and {@link #DECIMAL}
+	 * @param column The column to be converted
+	 * @return The typed column, or the column itself if no type fits
+	 */
+	static Column infer(Column column) {
+		for (ColumnType type : INFERRED) {
+			Column typed = type.convert(column);
+			if (typed != null)
+				return typed;
+		}
+		return column;
+	}
+}
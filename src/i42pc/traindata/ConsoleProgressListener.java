@@ -0,0 +1,47 @@
+package i42pc.traindata;
+
+import java.util.Locale;
+
+/**
+ * <p>This class prints the progress of an export on the console, rewriting the same line every time.</p>
+ * <p>The line shows the rows of the starting file done out of the total, the elements written, the throughput and the estimated time left.
+ */
+public class ConsoleProgressListener implements ProgressListener {
+	private int lastLength = 0;
+
+	public void progressChanged(ExportProgress progress) {
+		long eta = progress.getEtaMillis();
+		print(String.format(Locale.ROOT, "%d/%d rows (%.0f%%), %d elements, %.0f elements/s, %s",
+				progress.getRowsDone(), progress.getTotalRows(), progress.getFractionDone() * 100, progress.getElementsWritten(),
+				progress.getElementsPerSecond(), (eta == -1) ? "estimating the time left" : formatTime(eta) + " left"));
+	}
+
+	public void exportFinished(ExportProgress progress, boolean successful) {
+		print(String.format(Locale.ROOT, "%d/%d rows, %d elements in %s%s",
+				progress.getRowsDone(), progress.getTotalRows(), progress.getElementsWritten(),
+				formatTime(progress.getElapsedMillis()), successful ? "" : " (stopped by an error)"));
+		System.out.println();
+		lastLength = 0;
+	}
+
+	/**
+	 * Rewrites the current line of the console
+	 * @param line The new content of the line
+	 */
+	private void print(String line) {
+		StringBuffer out = new StringBuffer("\r").append(line);
+		for (int i = line.length(); i < lastLength; i++) {
+			out.append(' '); // clears the rest of the longer previous line
+		}
+		lastLength = line.length();
+		System.out.print(out);
+		System.out.flush();
+	}
+
+	private static String formatTime(long millis) {
+		long seconds = (millis + 500) / 1000;
+		if (seconds < 60)
+			return seconds + " s";
+		return String.format(Locale.ROOT, "%d min %02d s", seconds / 60, seconds % 60);
+	}
+}
@@ -0,0 +1,197 @@
+package i42pc.traindata;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>This class represents a column of decimal numbers, keeping every distinct value as a double (see {@link ColumnType#DECIMAL}).</p>
+ * <p>Along with the double, every value keeps the number of its decimal digits (its scale), so that values like {@code 45.058930}
+ * are formatted again with their trailing zeros. A value is accepted only if it's formatted back exactly:
+ * plain decimal numbers without exponent, leading zeros or leading plus sign, and with few enough digits to fit in a double.<br>
+ * Like in {@link IntColumn}, the distinct values are kept sorted (by number, then by scale), every cell keeps its code and the codes follow that order.
+ */
+class DecimalColumn extends Column {
+	private static final int MAX_SCALE = 15;
+	private static final double[] POWERS_OF_TEN = new double[MAX_SCALE + 1];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i <= MAX_SCALE; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private int[] codes;
+	private double[] distinctValues;
+	private byte[] distinctScales;
+
+	private DecimalColumn(int[] codes, double[] distinctValues, byte[] distinctScales) {
+		this.codes = codes;
+		this.distinctValues = distinctValues;
+		this.distinctScales = distinctScales;
+	}
+
+	/**
+	 * Converts a column to a decimal one
+	 * @param column The column to be converted
+	 * @return The new column, or null if some values of the column can't be kept exactly
+	 */
+	public static DecimalColumn convert(Column column) {
+		int dictionarySize = column.getDictionarySize();
+		double[] parsedValues = new double[dictionarySize];
+		byte[] parsedScales = new byte[dictionarySize];
+		for (int code = 0; code < dictionarySize; code++) {
+			String value = column.getValue(code);
+			int scale = parseScale(value);
+			if (scale == -1)
+				return null;
+			double number = Double.parseDouble(value);
+			if (!format(number, scale).equals(value))
+				return null;
+			parsedValues[code] = number;
+			parsedScales[code] = (byte) scale;
+		}
+		// sorts the distinct values by number and scale
+		Integer[] order = new Integer[dictionarySize];
+		for (int code = 0; code < dictionarySize; code++) {
+			order[code] = code;
+		}
+		final double[] sortValues = parsedValues;
+		final byte[] sortScales = parsedScales;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return compareEntries(sortValues[a], sortScales[a], sortValues[b], sortScales[b]);
+			}
+		});
+		double[] distinctValues = new double[dictionarySize];
+		byte[] distinctScales = new byte[dictionarySize];
+		int[] sortedCodes = new int[dictionarySize];
+		for (int i = 0; i < dictionarySize; i++) {
+			distinctValues[i] = parsedValues[order[i]];
+			distinctScales[i] = parsedScales[order[i]];
+			sortedCodes[order[i]] = i;
+		}
+		int[] codes = new int[column.size()];
+		for (int row = 0; row < codes.length; row++) {
+			codes[row] = sortedCodes[column.getCode(row)];
+		}
+		return new DecimalColumn(codes, distinctValues, distinctScales);
+	}
+
+	/**
+	 * Checks that a value is a plain decimal number and returns its number of decimal digits
+	 * @param value The value to be checked
+	 * @return The number of decimal digits, or -1 if the value isn't a plain decimal number
+	 */
+	private static int parseScale(String value) {
+		int length = value.length();
+		int start = (length > 0 && value.charAt(0) == '-') ? 1 : 0;
+		int point = -1;
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '.' && point == -1)
+				point = i;
+			else if (c < '0' || c > '9')
+				return -1;
+		}
+		if (point == start || point == length - 1 || length == start)
+			return -1;
+		int scale = (point == -1) ? 0 : length - point - 1;
+		return (scale > MAX_SCALE) ? -1 : scale;
+	}
+
+	/**
+	 * Formats a number with a given number of decimal digits
+	 * @param number The number
+	 * @param scale The number of decimal digits
+	 * @return The text of the number
+	 */
+	private static String format(double number, int scale) {
+		boolean negative = number < 0 || (number == 0 && 1 / number < 0);
+		String digits = Long.toString(Math.round(Math.abs(number) * POWERS_OF_TEN[scale]));
+		StringBuffer out = new StringBuffer(digits.length() + 3);
+		if (negative)
+			out.append('-');
+		for (int i = digits.length(); i <= scale; i++) {
+			out.append('0');
+		}
+		out.append(digits);
+		if (scale > 0)
+			out.insert(out.length() - scale, '.');
+		return out.toString();
+	}
+
+	private static int compareEntries(double value, int scale, double otherValue, int otherScale) {
+		int compare = Double.compare(value, otherValue);
+		return (compare != 0) ? compare : Integer.compare(scale, otherScale);
+	}
+
+	/**
+	 * Finds the code of a number with a given scale
+	 * @return The code, or -1 if no cell contains it
+	 */
+	private int search(double value, int scale) {
+		int low = 0;
+		int high = distinctValues.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compare = compareEntries(distinctValues[middle], distinctScales[middle], value, scale);
+			if (compare < 0)
+				low = middle + 1;
+			else if (compare > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+
+	public void add(String value) {
+		throw new UnsupportedOperationException("A typed column can't be changed");
+	}
+
+	public int getCode(int row) {
+		return codes[row];
+	}
+
+	public String getValue(int code) {
+		return format(distinctValues[code], distinctScales[code]);
+	}
+
+	public int findCode(String value) {
+		int scale = parseScale(value);
+		if (scale == -1)
+			return -1;
+		double number = Double.parseDouble(value);
+		if (!format(number, scale).equals(value))
+			return -1;
+		return search(number, scale);
+	}
+
+	public int getDictionarySize() {
+		return distinctValues.length;
+	}
+
+	public int size() {
+		return codes.length;
+	}
+
+	public ColumnType getType() {
+		return ColumnType.DECIMAL;
+	}
+
+	public int getInt(int row) {
+		throw new UnsupportedOperationException("The column isn't an integer one: " + getType());
+	}
+
+	public double getDouble(int row) {
+		return distinctValues[codes[row]];
+	}
+
+	public double getDoubleValue(int code) {
+		return distinctValues[code];
+	}
+
+	public void trim() {
+		// the codes are already allocated for the whole column
+	}
+}
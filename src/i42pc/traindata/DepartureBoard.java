@@ -0,0 +1,388 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>This class answers the departure board queries: the next departures from a stop, after a given time of a given date.</p>
+ * <p>It's built once from stop_times.txt, trips.txt and routes.txt: the stop times are sorted by stop and by departure time
+ * in arrays of primitives, and the stop times of every stop are found through a range index, so a query only reads the departures it returns
+ * (and the ones of the trips not running on the date, see {@link ServiceCalendar}).<br>
+ * The trips running after midnight as part of the service of the day before ({@code departure_time} after {@code 24:00:00}) are found too.</p>
+ * <p>The index never changes, so it can be used by many threads.</p>
+ */
+public final class DepartureBoard {
+	public static final String STOP_TIMES_FILE = "stop_times.txt";
+	public static final String ROUTES_FILE = "routes.txt";
+
+	private static final int DAY_SECONDS = 24 * 3600;
+
+	private final FileData stopTimes;
+	private final FileData trips;
+	private final FileData routes;
+	private final ServiceCalendar calendar;
+
+	// the stop times of the stop s are at the positions from stopStarts[s] to stopStarts[s + 1] (excluded), sorted by departure time
+	private final HashMap<String, Integer> stopIndexes = new HashMap<String, Integer>();
+	private int[] stopStarts;
+	private int[] departures;
+	private int[] stopTimeRows;
+	private int[] tripRows;
+	// the row of routes.txt for every row of trips.txt, -1 if the route doesn't exist
+	private int[] tripRoutes;
+
+	private final int tripIdColumn;
+	private final int routeIdColumn;
+	private final int tripHeadsignColumn;
+	private final int stopHeadsignColumn;
+	private final int departureColumn;
+	private final int routeShortNameColumn;
+	private final int routeLongNameColumn;
+
+	/**
+	 * Constructor for this object: it builds the whole index
+	 * The stop times with a malformed departure time, or of a trip which doesn't exist, are ignored
+	 * @param stopTimes The stop_times.txt file
+	 * @param trips The trips.txt file
+	 * @param routes The routes.txt file, null if it doesn't exist (the departures won't have any route name then)
+	 * @param calendar The days in which every trip runs, null to consider every trip running every day
+	 */
+	public DepartureBoard(FileData stopTimes, FileData trips, FileData routes, ServiceCalendar calendar) {
+		this.stopTimes = stopTimes;
+		this.trips = trips;
+		this.routes = routes;
+		this.calendar = (calendar != null && calendar.getTrips() == trips) ? calendar : null;
+		tripIdColumn = trips.getTitleIndex("trip_id");
+		routeIdColumn = trips.getTitleIndex("route_id");
+		tripHeadsignColumn = trips.getTitleIndex("trip_headsign");
+		stopHeadsignColumn = stopTimes.getTitleIndex("stop_headsign");
+		departureColumn = stopTimes.getTitleIndex("departure_time");
+		routeShortNameColumn = (routes == null) ? -1 : routes.getTitleIndex("route_short_name");
+		routeLongNameColumn = (routes == null) ? -1 : routes.getTitleIndex("route_long_name");
+		indexRoutes();
+		indexStopTimes();
+	}
+
+	/**
+	 * Finds the route of every trip
+	 */
+	private void indexRoutes() {
+		tripRoutes = new int[trips.getRowCount()];
+		Arrays.fill(tripRoutes, -1);
+		if (routes == null || routeIdColumn == -1)
+			return;
+		int routeColumn = routes.getTitleIndex("route_id");
+		HashMap<String, Integer> routeRows = new HashMap<String, Integer>();
+		for (int rowId = 0; rowId < routes.getRowCount(); rowId++) {
+			String routeId = value(routes, rowId, routeColumn);
+			if (routeId != null && !routeRows.containsKey(routeId))
+				routeRows.put(routeId, rowId);
+		}
+		for (int rowId = 0; rowId < tripRoutes.length; rowId++) {
+			Integer route = routeRows.get(value(trips, rowId, routeIdColumn));
+			if (route != null)
+				tripRoutes[rowId] = route;
+		}
+	}
+
+	/**
+	 * Sorts the stop times by stop and by departure time
+	 */
+	private void indexStopTimes() {
+		int rowCount = stopTimes.getRowCount();
+		FrozenFileData frozen = stopTimes.getFrozen();
+		int stopColumn = stopTimes.getTitleIndex("stop_id");
+		int tripColumn = stopTimes.getTitleIndex("trip_id");
+		if (frozen == null || stopColumn == -1 || tripColumn == -1 || departureColumn == -1 || tripIdColumn == -1
+				|| Math.max(stopColumn, Math.max(tripColumn, departureColumn)) >= frozen.getColumnCount()) {
+			stopStarts = new int[1];
+			departures = stopTimeRows = tripRows = new int[0];
+			return;
+		}
+		
+		// the stops, the trips and the times are looked up once for every distinct value of their columns
+		Column stopCodes = frozen.getColumn(stopColumn);
+		int[] codeStops = new int[stopCodes.getDictionarySize()];
+		for (int code = 0; code < codeStops.length; code++) {
+			codeStops[code] = stopIndexes.size();
+			stopIndexes.put(stopCodes.getValue(code), codeStops[code]);
+		}
+		HashMap<String, Integer> tripIds = new HashMap<String, Integer>();
+		for (int rowId = 0; rowId < trips.getRowCount(); rowId++) {
+			String tripId = value(trips, rowId, tripIdColumn);
+			if (tripId != null && !tripIds.containsKey(tripId))
+				tripIds.put(tripId, rowId);
+		}
+		Column tripCodes = frozen.getColumn(tripColumn);
+		int[] codeTrips = new int[tripCodes.getDictionarySize()];
+		for (int code = 0; code < codeTrips.length; code++) {
+			Integer trip = tripIds.get(tripCodes.getValue(code));
+			codeTrips[code] = (trip == null) ? -1 : trip;
+		}
+		Column timeCodes = frozen.getColumn(departureColumn);
+		int[] codeSeconds = new int[timeCodes.getDictionarySize()];
+		for (int code = 0; code < codeSeconds.length; code++) {
+			codeSeconds[code] = toSeconds(timeCodes.getValue(code));
+		}
+		
+		// counts the stop times of every stop, then places them in the ranges of their stops
+		int[] rowStops = new int[rowCount];
+		stopStarts = new int[stopIndexes.size() + 1];
+		for (int rowId = 0; rowId < rowCount; rowId++) {
+			rowStops[rowId] = -1;
+			if (rowId >= stopCodes.size() || rowId >= tripCodes.size() || rowId >= timeCodes.size())
+				continue;
+			if (codeTrips[tripCodes.getCode(rowId)] == -1 || codeSeconds[timeCodes.getCode(rowId)] == -1)
+				continue;
+			rowStops[rowId] = codeStops[stopCodes.getCode(rowId)];
+			stopStarts[rowStops[rowId] + 1]++;
+		}
+		for (int stop = 0; stop < stopIndexes.size(); stop++) {
+			stopStarts[stop + 1] += stopStarts[stop];
+		}
+		int size = stopStarts[stopStarts.length - 1];
+		long[] sorted = new long[size];
+		int[] next = Arrays.copyOf(stopStarts, stopIndexes.size());
+		for (int rowId = 0; rowId < rowCount; rowId++) {
+			if (rowStops[rowId] != -1)
+				sorted[next[rowStops[rowId]]++] = ((long) codeSeconds[timeCodes.getCode(rowId)] << 32) | rowId;
+		}
+		departures = new int[size];
+		stopTimeRows = new int[size];
+		tripRows = new int[size];
+		for (int stop = 0; stop < stopIndexes.size(); stop++) {
+			// sorts by departure time, then by row of stop_times.txt
+			Arrays.sort(sorted, stopStarts[stop], stopStarts[stop + 1]);
+		}
+		for (int i = 0; i < size; i++) {
+			departures[i] = (int) (sorted[i] >>> 32);
+			stopTimeRows[i] = (int) sorted[i];
+			tripRows[i] = codeTrips[tripCodes.getCode(stopTimeRows[i])];
+		}
+	}
+
+	private static String value(FileData file, int rowId, int column) {
+		if (column == -1 || column >= file.getCellCount(rowId))
+			return null;
+		return file.getValue(rowId, column);
+	}
+
+	/**
+	 * Converts a time to the number of seconds from midnight
+	 * @param time The time, as {@code HH:MM:SS} or {@code H:MM:SS} (the hours can be more than 23)
+	 * @return The number of seconds, or -1 if the time is malformed
+	 */
+	static int toSeconds(String time) {
+		if (time == null)
+			return -1;
+		int length = time.length();
+		if (length < 7 || length > 8 || time.charAt(length - 3) != ':' || time.charAt(length - 6) != ':')
+			return -1;
+		for (int i = 0; i < length; i++) {
+			if (i == length - 3 || i == length - 6)
+				continue;
+			char c = time.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+		}
+		int hours = Integer.parseInt(time.substring(0, length - 6));
+		int minutes = (time.charAt(length - 5) - '0') * 10 + (time.charAt(length - 4) - '0');
+		int seconds = (time.charAt(length - 2) - '0') * 10 + (time.charAt(length - 1) - '0');
+		if (minutes > 59 || seconds > 59)
+			return -1;
+		return hours * 3600 + minutes * 60 + seconds;
+	}
+
+	/**
+	 * Returns the number of stops with at least a departure
+	 * @return The number of stops
+	 */
+	public int getStopCount() {
+		return stopIndexes.size();
+	}
+
+	/**
+	 * Returns the number of stop times in the index
+	 * @return The number of stop times, without the malformed ones
+	 */
+	public int getStopTimeCount() {
+		return departures.length;
+	}
+
+	/**
+	 * <p>Returns the next departures from a stop, in order of time.</p>
+	 * <p>A trip departs on a date if it runs on that date (see {@link ServiceCalendar#isTripActive(int, String)}),
+	 * or if it runs on the day before and it departs after midnight.</p>
+	 * @param stopId The id of the stop
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @param time The time, as {@code HH:MM:SS}: the departures at that time are included
+	 * @param limit The maximum number of departures
+	 * @return The departures, or null if the date or the time are malformed (an empty list if the stop doesn't exist)
+	 */
+	public List<Departure> getDepartures(String stopId, String date, String time, int limit) {
+		int seconds = toSeconds(time);
+		if (seconds == -1 || !ServiceCalendar.isDate(date))
+			return null;
+		ArrayList<Departure> out = new ArrayList<Departure>();
+		Integer stop = stopIndexes.get(stopId);
+		if (stop == null || limit <= 0)
+			return out;
+		int start = stopStarts[stop];
+		int end = stopStarts[stop + 1];
+		String previousDate = ServiceCalendar.previousDate(date);
+		int day = -1;
+		int previousDay = -1;
+		if (calendar != null) {
+			day = calendar.getDay(date);
+			previousDay = calendar.getDay(previousDate);
+		}
+		
+		// merges the departures of the services of the date with the ones of the services of the day before, after midnight
+		int today = nextActive(lowerBound(start, end, seconds), end, day);
+		int yesterday = nextActive(lowerBound(start, end, seconds + DAY_SECONDS), end, previousDay);
+		while (out.size() < limit && (today < end || yesterday < end)) {
+			if (yesterday >= end || (today < end && departures[today] <= departures[yesterday] - DAY_SECONDS)) {
+				out.add(new Departure(this, today, date));
+				today = nextActive(today + 1, end, day);
+			}
+			else {
+				out.add(new Departure(this, yesterday, previousDate));
+				yesterday = nextActive(yesterday + 1, end, previousDay);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Finds the first departure of a range at or after a time
+	 * @return The position of the departure, or end if there's none
+	 */
+	private int lowerBound(int start, int end, int seconds) {
+		while (start < end) {
+			int middle = (start + end) >>> 1;
+			if (departures[middle] < seconds)
+				start = middle + 1;
+			else
+				end = middle;
+		}
+		return start;
+	}
+
+	/**
+	 * Finds the first departure of a range whose trip runs on a day
+	 * @param day The position of the day in the calendar, see {@link ServiceCalendar#getDay(String)}
+	 * @return The position of the departure, or end if there's none
+	 */
+	private int nextActive(int position, int end, int day) {
+		if (calendar == null)
+			return position;
+		if (day == -1)
+			return end;
+		while (position < end && !calendar.isTripActive(tripRows[position], day))
+			position++;
+		return position;
+	}
+
+	/**
+	 * This class represents a single departure from a stop, with the data of its trip and of its route
+	 * The data is read from the files only when it's requested
+	 */
+	public static final class Departure {
+		private final DepartureBoard board;
+		private final int position;
+		private final String serviceDate;
+
+		private Departure(DepartureBoard board, int position, String serviceDate) {
+			this.board = board;
+			this.position = position;
+			this.serviceDate = serviceDate;
+		}
+
+		/**
+		 * Returns the departure time, as written in stop_times.txt
+		 * @return The time, as {@code HH:MM:SS} (after {@code 24:00:00} for a trip of the day before)
+		 */
+		public String getDepartureTime() {
+			return value(board.stopTimes, getStopTimeRow(), board.departureColumn);
+		}
+
+		/**
+		 * Returns the departure time as seconds from the midnight of the service date (see {@link #getServiceDate()})
+		 * @return The number of seconds
+		 */
+		public int getDepartureSeconds() {
+			return board.departures[position];
+		}
+
+		/**
+		 * Returns the date of the service of the trip: the day before the requested date for a trip departing after midnight
+		 * @return The date, as {@code yyyyMMdd}
+		 */
+		public String getServiceDate() {
+			return serviceDate;
+		}
+
+		/**
+		 * Returns the id of the trip
+		 * @return The trip_id
+		 */
+		public String getTripId() {
+			return value(board.trips, getTripRow(), board.tripIdColumn);
+		}
+
+		/**
+		 * Returns the headsign of the departure: the one of the stop time, or the one of the trip if the stop time has none
+		 * @return The headsign, null if neither has it
+		 */
+		public String getHeadsign() {
+			String headsign = value(board.stopTimes, getStopTimeRow(), board.stopHeadsignColumn);
+			if (headsign == null || headsign.trim().isEmpty())
+				headsign = value(board.trips, getTripRow(), board.tripHeadsignColumn);
+			return headsign;
+		}
+
+		/**
+		 * Returns the id of the route of the trip
+		 * @return The route_id, null if the trip has none
+		 */
+		public String getRouteId() {
+			return value(board.trips, getTripRow(), board.routeIdColumn);
+		}
+
+		/**
+		 * Returns the name of the route of the trip: the short name, or the long name if the route has no short name
+		 * @return The name, null if the route doesn't exist or has no name
+		 */
+		public String getRouteName() {
+			int route = board.tripRoutes[getTripRow()];
+			if (route == -1)
+				return null;
+			String name = value(board.routes, route, board.routeShortNameColumn);
+			if (name == null || name.trim().isEmpty())
+				name = value(board.routes, route, board.routeLongNameColumn);
+			return name;
+		}
+
+		/**
+		 * Returns the position of the stop time in stop_times.txt
+		 * @return The row id
+		 */
+		public int getStopTimeRow() {
+			return board.stopTimeRows[position];
+		}
+
+		/**
+		 * Returns the position of the trip in trips.txt
+		 * @return The row id
+		 */
+		public int getTripRow() {
+			return board.tripRows[position];
+		}
+
+		public String toString() {
+			return getDepartureTime() + " " + getTripId() + " " + getRouteName() + " " + getHeadsign();
+		}
+	}
+}
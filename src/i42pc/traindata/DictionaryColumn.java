@@ -0,0 +1,113 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <p>This class represents a single column of the table of a {@link FileData} object, keeping its values as Strings.</p>
+ * <p>The column is dictionary-encoded:<br>
+ * <ul>
+ * <li>Every distinct value of the column is stored only once, in the dictionary, and gets an int code</li>
+ * <li>Every cell of the column is stored as the code of its value</li>
+ * </ul>
+ * This makes columns with few distinct values (like ids or flags) take only an int per cell.
+ */
+class DictionaryColumn extends Column {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] codes = new int[INITIAL_CAPACITY];
+	private int size = 0;
+	private ArrayList<String> dictionary = new ArrayList<String>();
+	private HashMap<String, Integer> dictionaryCodes = new HashMap<String, Integer>();
+
+	/**
+	 * Constructor for an empty column
+	 */
+	public DictionaryColumn() {}
+
+	/**
+	 * Constructor for a column with all of its cells already known (for example when it's loaded from a snapshot)
+	 * @param dictionary The distinct values of the column: the code of every value is its position in this list
+	 * @param codes The code of every cell
+	 * @param size The number of cells
+	 */
+	public DictionaryColumn(ArrayList<String> dictionary, int[] codes, int size) {
+		this.dictionary = new ArrayList<String>(dictionary);
+		this.dictionaryCodes = new HashMap<String, Integer>(dictionary.size() * 2);
+		for (int code = 0; code < dictionary.size(); code++) {
+			dictionaryCodes.put(dictionary.get(code), code);
+		}
+		this.codes = Arrays.copyOf(codes, size);
+		this.size = size;
+	}
+
+	/**
+	 * Adds a new cell at the end of the column
+	 * @param value The value of the new cell
+	 */
+	public void add(String value) {
+		Integer code = dictionaryCodes.get(value);
+		if (code == null) {
+			code = dictionary.size();
+			dictionary.add(value);
+			dictionaryCodes.put(value, code);
+		}
+		if (size == codes.length)
+			codes = Arrays.copyOf(codes, Math.max(INITIAL_CAPACITY, size * 2));
+		codes[size++] = code;
+	}
+
+	/**
+	 * Returns the dictionary code of a cell
+	 * @param row The position of the cell in the column
+	 * @return The code of the value of the cell
+	 */
+	public int getCode(int row) {
+		return codes[row];
+	}
+
+	/**
+	 * Returns the value corresponding to a dictionary code
+	 * @param code The code of the value
+	 * @return The value
+	 */
+	public String getValue(int code) {
+		return dictionary.get(code);
+	}
+
+	/**
+	 * Returns the dictionary code of a given value
+	 * @param value The searched value
+	 * @return The code of the value, or -1 if no cell of the column contains it
+	 */
+	public int findCode(String value) {
+		Integer code = dictionaryCodes.get(value);
+		return (code == null) ? -1 : code;
+	}
+
+	/**
+	 * Returns the number of distinct values in the column
+	 * @return The size of the dictionary
+	 */
+	public int getDictionarySize() {
+		return dictionary.size();
+	}
+
+	/**
+	 * Returns the number of cells in the column
+	 * @return The number of cells
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Releases the unused capacity of the column: it should be called once no more cells will be added
+	 */
+	public void trim() {
+		if (codes.length != size)
+			codes = Arrays.copyOf(codes, size);
+		dictionary.trimToSize();
+	}
+}
@@ -0,0 +1,508 @@
+package i42pc.traindata;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>This class collects the metrics of the reading of the files and of the exports, to know where the time goes.</p>
+ * <p>It records:<br>
+ * <ul><li>For every file read: the parse time, the rows and the bytes (see {@link FileList#readAllFiles()})</li>
+ * <li>For every export: the elements and the bytes written, and the time spent (see {@link XMLFileWriter})</li>
+ * <li>The traversals of every link, the lookups of the linked rows, the rows checked and filtered out by the search links</li>
+ * <li>The hits and the misses of the fragment cache, if it's enabled</li></ul>
+ * <p>Set it with {@link FileList#setMetrics(ExportMetrics)}: the writers of the FileList use it too.
+ * The metrics can be printed as a summary ({@link #toString()}), dumped as JSON ({@link #toJson()}) or published as a JMX MBean ({@link #register()}).</p>
+ * <p>All of its methods can be called by many threads at the same time. The writers keep their counts locally and add them
+ * when they finish, so the metrics of an export are complete only once it has returned.</p>
+ */
+public class ExportMetrics implements ExportMetricsMBean {
+	public static final String DEFAULT_OBJECT_NAME = "i42pc.traindata:type=ExportMetrics";
+
+	private final List<FileStats> files = Collections.synchronizedList(new ArrayList<FileStats>());
+	private final List<ExportStats> exports = Collections.synchronizedList(new ArrayList<ExportStats>());
+	private final ConcurrentSkipListMap<String, LongAdder> linkTraversals = new ConcurrentSkipListMap<String, LongAdder>();
+	private final LongAdder snapshotFiles = new LongAdder();
+	private final LongAdder snapshotBytes = new LongAdder();
+	private final LongAdder snapshotNanos = new LongAdder();
+	private final LongAdder filteredLookups = new LongAdder();
+	private final LongAdder searchChecks = new LongAdder();
+	private final LongAdder rowsFilteredOut = new LongAdder();
+	private final LongAdder fragmentCacheHits = new LongAdder();
+	private final LongAdder fragmentCacheMisses = new LongAdder();
+	private ObjectName registeredName = null;
+
+	/**
+	 * Records the reading of a file
+	 * @param name The name of the file
+	 * @param bytes The size of the file
+	 * @param rows The number of rows read
+	 * @param nanos The time spent reading the file, in nanoseconds
+	 */
+	public void recordFileRead(String name, long bytes, int rows, long nanos) {
+		files.add(new FileStats(name, bytes, rows, nanos));
+	}
+
+	/**
+	 * Records the loading of the files from the snapshot (see {@link FileListSnapshot})
+	 * @param fileCount The number of files loaded
+	 * @param bytes The size of the snapshot
+	 * @param nanos The time spent loading the snapshot, in nanoseconds
+	 */
+	public void recordSnapshotRead(int fileCount, long bytes, long nanos) {
+		snapshotFiles.add(fileCount);
+		snapshotBytes.add(bytes);
+		snapshotNanos.add(nanos);
+	}
+
+	/**
+	 * Records a finished export
+	 * @param output The name of the resulting file
+	 * @param elements The number of elements written
+	 * @param bytes The number of bytes written, -1 if unknown
+	 * @param startNanos The time the export started, from {@link System#nanoTime()}
+	 * @param endNanos The time the export ended, from {@link System#nanoTime()}
+	 * @param successful True if the export is successful, false otherwise
+	 */
+	public void recordExport(String output, long elements, long bytes, long startNanos, long endNanos, boolean successful) {
+		exports.add(new ExportStats(output, elements, bytes, startNanos, endNanos, successful));
+	}
+
+	/**
+	 * Adds some traversals of a link
+	 * @param link The name of the link
+	 * @param count The number of traversals
+	 */
+	public void addLinkTraversals(String link, long count) {
+		LongAdder adder = linkTraversals.get(link);
+		if (adder == null) {
+			linkTraversals.putIfAbsent(link, new LongAdder());
+			adder = linkTraversals.get(link);
+		}
+		adder.add(count);
+	}
+
+	/**
+	 * Adds some lookups of the rows of a linked file matching a value
+	 * @param count The number of lookups
+	 */
+	public void addFilteredLookups(long count) {
+		filteredLookups.add(count);
+	}
+
+	/**
+	 * Adds some rows checked against a search link
+	 * @param checked The number of rows checked
+	 * @param filteredOut The number of rows not passing the check
+	 */
+	public void addSearchChecks(long checked, long filteredOut) {
+		searchChecks.add(checked);
+		rowsFilteredOut.add(filteredOut);
+	}
+
+	/**
+	 * Adds the hits and the misses of a fragment cache
+	 * @param hits The number of hits
+	 * @param misses The number of misses
+	 */
+	public void addFragmentCacheCounts(long hits, long misses) {
+		fragmentCacheHits.add(hits);
+		fragmentCacheMisses.add(misses);
+	}
+
+	/**
+	 * Returns the metrics of every file read, in the order they have been read
+	 * @return A fresh ArrayList<FileStats>
+	 */
+	public ArrayList<FileStats> getFileStats() {
+		synchronized (files) {
+			return new ArrayList<FileStats>(files);
+		}
+	}
+
+	/**
+	 * Returns the metrics of every export, in the order they have finished
+	 * @return A fresh ArrayList<ExportStats>
+	 */
+	public ArrayList<ExportStats> getExportStats() {
+		synchronized (exports) {
+			return new ArrayList<ExportStats>(exports);
+		}
+	}
+
+	/**
+	 * Returns the number of traversals of a link
+	 * @param link The name of the link (see {@link RenderPlan#getLinkName(int)})
+	 * @return The number of traversals, 0 if the link has never been traversed
+	 */
+	public long getLinkTraversals(String link) {
+		LongAdder adder = linkTraversals.get(link);
+		return (adder == null) ? 0 : adder.sum();
+	}
+
+	/**
+	 * Returns the names of the links traversed
+	 * @return A fresh ArrayList<String>, in alphabetical order
+	 */
+	public ArrayList<String> getLinkNames() {
+		return new ArrayList<String>(linkTraversals.keySet());
+	}
+
+	public int getFilesRead() {
+		return files.size();
+	}
+
+	public long getRowsRead() {
+		long rows = 0;
+		for (FileStats stats : getFileStats()) {
+			rows += stats.getRows();
+		}
+		return rows;
+	}
+
+	public long getBytesRead() {
+		long bytes = 0;
+		for (FileStats stats : getFileStats()) {
+			bytes += stats.getBytes();
+		}
+		return bytes;
+	}
+
+	public long getParseMillis() {
+		long nanos = 0;
+		for (FileStats stats : getFileStats()) {
+			nanos += stats.getNanos();
+		}
+		return nanos / 1000000;
+	}
+
+	public int getSnapshotFilesLoaded() {
+		return snapshotFiles.intValue();
+	}
+
+	public int getExports() {
+		return exports.size();
+	}
+
+	public long getElementsWritten() {
+		long elements = 0;
+		for (ExportStats stats : getExportStats()) {
+			elements += stats.getElements();
+		}
+		return elements;
+	}
+
+	public long getBytesWritten() {
+		long bytes = 0;
+		for (ExportStats stats : getExportStats()) {
+			bytes += Math.max(0, stats.getBytes());
+		}
+		return bytes;
+	}
+
+	public long getWriteMillis() {
+		return getWriteNanos() / 1000000;
+	}
+
+	/**
+	 * Returns the wall-clock time spent by the exports: the union of their time spans,
+	 * so that the exports running at the same time are counted only once
+	 */
+	private long getWriteNanos() {
+		ArrayList<ExportStats> sorted = getExportStats();
+		Collections.sort(sorted, new Comparator<ExportStats>() {
+			public int compare(ExportStats a, ExportStats b) {
+				return Long.compare(a.startNanos, b.startNanos);
+			}
+		});
+		long nanos = 0;
+		long spanStart = 0;
+		long spanEnd = 0;
+		boolean first = true;
+		for (ExportStats stats : sorted) {
+			if (first || stats.startNanos > spanEnd) {
+				nanos += spanEnd - spanStart;
+				spanStart = stats.startNanos;
+				spanEnd = stats.endNanos;
+				first = false;
+			} else if (stats.endNanos > spanEnd) {
+				spanEnd = stats.endNanos;
+			}
+		}
+		return nanos + spanEnd - spanStart;
+	}
+
+	public double getElementsPerSecond() {
+		long nanos = getWriteNanos();
+		return (nanos == 0) ? 0 : getElementsWritten() * 1e9 / nanos;
+	}
+
+	public long getLinkTraversals() {
+		long traversals = 0;
+		for (LongAdder adder : linkTraversals.values()) {
+			traversals += adder.sum();
+		}
+		return traversals;
+	}
+
+	public long getFilteredLookups() {
+		return filteredLookups.sum();
+	}
+
+	public long getSearchChecks() {
+		return searchChecks.sum();
+	}
+
+	public long getRowsFilteredOut() {
+		return rowsFilteredOut.sum();
+	}
+
+	public long getFragmentCacheHits() {
+		return fragmentCacheHits.sum();
+	}
+
+	public long getFragmentCacheMisses() {
+		return fragmentCacheMisses.sum();
+	}
+
+	public double getFragmentCacheHitRate() {
+		long hits = getFragmentCacheHits();
+		long lookups = hits + getFragmentCacheMisses();
+		return (lookups == 0) ? 0 : (double) hits / lookups;
+	}
+
+	public String getSummary() {
+		return toString();
+	}
+
+	public String getJson() {
+		return toJson();
+	}
+
+	public void reset() {
+		files.clear();
+		exports.clear();
+		linkTraversals.clear();
+		snapshotFiles.reset();
+		snapshotBytes.reset();
+		snapshotNanos.reset();
+		filteredLookups.reset();
+		searchChecks.reset();
+		rowsFilteredOut.reset();
+		fragmentCacheHits.reset();
+		fragmentCacheMisses.reset();
+	}
+
+	/**
+	 * Publishes the metrics as a JMX MBean on the platform MBean server, named {@value #DEFAULT_OBJECT_NAME}
+	 * @return True if the MBean is registered, false otherwise (for example if another MBean has the same name)
+	 */
+	public boolean register() {
+		return register(DEFAULT_OBJECT_NAME);
+	}
+
+	/**
+	 * Publishes the metrics as a JMX MBean on the platform MBean server
+	 * @param objectName The name of the MBean
+	 * @return True if the MBean is registered, false otherwise (for example if another MBean has the same name)
+	 */
+	public synchronized boolean register(String objectName) {
+		if (registeredName != null)
+			return false;
+		try {
+			ObjectName name = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			registeredName = name;
+		} catch (Exception e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes the MBean published by {@link #register()}, if any
+	 */
+	public synchronized void unregister() {
+		if (registeredName == null)
+			return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(registeredName);
+		} catch (Exception e) {
+			// already removed
+		}
+		registeredName = null;
+	}
+
+	/**
+	 * <p>Returns a printable summary of the metrics: the totals, followed by the metrics of every file, export and link</p>
+	 * @return A printable String containing the metrics
+	 */
+	public String toString() {
+		String nl = System.lineSeparator();
+		StringBuffer out = new StringBuffer();
+		out.append(String.format(Locale.ROOT, "Files read: %d (%d rows, %d bytes) in %d ms", getFilesRead(), getRowsRead(), getBytesRead(), getParseMillis())).append(nl);
+		for (FileStats stats : getFileStats()) {
+			out.append(String.format(Locale.ROOT, "\t%s: %d rows, %d bytes, %d ms", stats.getName(), stats.getRows(), stats.getBytes(), stats.getNanos() / 1000000)).append(nl);
+		}
+		if (getSnapshotFilesLoaded() > 0)
+			out.append(String.format(Locale.ROOT, "Files loaded from the snapshot: %d (%d bytes) in %d ms", getSnapshotFilesLoaded(), snapshotBytes.sum(), snapshotNanos.sum() / 1000000)).append(nl);
+		out.append(String.format(Locale.ROOT, "Exports: %d (%d elements, %d bytes) in %d ms, %.0f elements/s", getExports(), getElementsWritten(), getBytesWritten(), getWriteMillis(), getElementsPerSecond())).append(nl);
+		for (ExportStats stats : getExportStats()) {
+			out.append(String.format(Locale.ROOT, "\t%s: %d elements, %d bytes, %d ms, %.0f elements/s%s", stats.getOutput(), stats.getElements(), stats.getBytes(), stats.getNanos() / 1000000,
+					stats.getElementsPerSecond(), stats.isSuccessful() ? "" : " (failed)")).append(nl);
+		}
+		out.append(String.format(Locale.ROOT, "Link traversals: %d", getLinkTraversals())).append(nl);
+		for (Map.Entry<String, LongAdder> link : linkTraversals.entrySet()) {
+			out.append(String.format(Locale.ROOT, "\t%s: %d", link.getKey(), link.getValue().sum())).append(nl);
+		}
+		out.append(String.format(Locale.ROOT, "Filtered lookups: %d", getFilteredLookups())).append(nl);
+		out.append(String.format(Locale.ROOT, "Search checks: %d (%d rows filtered out)", getSearchChecks(), getRowsFilteredOut())).append(nl);
+		out.append(String.format(Locale.ROOT, "Fragment cache: %d hits, %d misses (%.1f%% hit rate)", getFragmentCacheHits(), getFragmentCacheMisses(), getFragmentCacheHitRate() * 100)).append(nl);
+		return out.toString();
+	}
+
+	/**
+	 * <p>Returns the metrics as a JSON object, with the same content as {@link #toString()}</p>
+	 * @return The JSON text
+	 */
+	public String toJson() {
+		StringBuffer out = new StringBuffer();
+		out.append("{\"files\":[");
+		ArrayList<FileStats> fileStats = getFileStats();
+		for (int i = 0; i < fileStats.size(); i++) {
+			FileStats stats = fileStats.get(i);
+			out.append(i == 0 ? "" : ",").append("{\"name\":").append(quote(stats.getName()))
+				.append(",\"rows\":").append(stats.getRows())
+				.append(",\"bytes\":").append(stats.getBytes())
+				.append(",\"nanos\":").append(stats.getNanos()).append('}');
+		}
+		out.append("],\"snapshot\":{\"files\":").append(snapshotFiles.sum())
+			.append(",\"bytes\":").append(snapshotBytes.sum())
+			.append(",\"nanos\":").append(snapshotNanos.sum()).append('}');
+		out.append(",\"exports\":[");
+		ArrayList<ExportStats> exportStats = getExportStats();
+		for (int i = 0; i < exportStats.size(); i++) {
+			ExportStats stats = exportStats.get(i);
+			out.append(i == 0 ? "" : ",").append("{\"output\":").append(quote(stats.getOutput()))
+				.append(",\"elements\":").append(stats.getElements())
+				.append(",\"bytes\":").append(stats.getBytes())
+				.append(",\"nanos\":").append(stats.getNanos())
+				.append(",\"successful\":").append(stats.isSuccessful()).append('}');
+		}
+		out.append("],\"links\":{");
+		boolean first = true;
+		for (Map.Entry<String, LongAdder> link : linkTraversals.entrySet()) {
+			out.append(first ? "" : ",").append(quote(link.getKey())).append(':').append(link.getValue().sum());
+			first = false;
+		}
+		out.append("},\"filteredLookups\":").append(getFilteredLookups())
+			.append(",\"searchChecks\":").append(getSearchChecks())
+			.append(",\"rowsFilteredOut\":").append(getRowsFilteredOut())
+			.append(",\"fragmentCache\":{\"hits\":").append(getFragmentCacheHits())
+			.append(",\"misses\":").append(getFragmentCacheMisses()).append("}}");
+		return out.toString();
+	}
+
+	private static String quote(String value) {
+		StringBuffer out = new StringBuffer("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				out.append('\\').append(c);
+			else if (c < 0x20)
+				out.append(String.format("\\u%04x", (int) c));
+			else
+				out.append(c);
+		}
+		return out.append('"').toString();
+	}
+
+	/**
+	 * Internal class to represent the metrics of a file read
+	 */
+	public static final class FileStats {
+		private final String name;
+		private final long bytes;
+		private final int rows;
+		private final long nanos;
+
+		private FileStats(String name, long bytes, int rows, long nanos) {
+			this.name = name;
+			this.bytes = bytes;
+			this.rows = rows;
+			this.nanos = nanos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+	}
+
+	/**
+	 * Internal class to represent the metrics of an export
+	 */
+	public static final class ExportStats {
+		private final String output;
+		private final long elements;
+		private final long bytes;
+		private final long startNanos;
+		private final long endNanos;
+		private final boolean successful;
+
+		private ExportStats(String output, long elements, long bytes, long startNanos, long endNanos, boolean successful) {
+			this.output = output;
+			this.elements = elements;
+			this.bytes = bytes;
+			this.startNanos = startNanos;
+			this.endNanos = endNanos;
+			this.successful = successful;
+		}
+
+		public String getOutput() {
+			return output;
+		}
+
+		public long getElements() {
+			return elements;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getNanos() {
+			return endNanos - startNanos;
+		}
+
+		public double getElementsPerSecond() {
+			long nanos = getNanos();
+			return (nanos == 0) ? 0 : elements * 1e9 / nanos;
+		}
+
+		public boolean isSuccessful() {
+			return successful;
+		}
+	}
+}
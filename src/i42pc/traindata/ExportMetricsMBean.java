@@ -0,0 +1,128 @@
+package i42pc.traindata;
+
+/**
+ * <p>This interface is the management interface of {@link ExportMetrics}, through which the metrics are published as a JMX MBean.</p>
+ * <p>See {@link ExportMetrics#register()}
+ */
+public interface ExportMetricsMBean {
+
+	/**
+	 * Returns the number of files read (not counting the ones loaded from the snapshot)
+	 * @return The number of files
+	 */
+	public int getFilesRead();
+
+	/**
+	 * Returns the total number of rows in the files read
+	 * @return The number of rows
+	 */
+	public long getRowsRead();
+
+	/**
+	 * Returns the total size of the files read
+	 * @return The number of bytes
+	 */
+	public long getBytesRead();
+
+	/**
+	 * Returns the total time spent parsing the files (the sum of the times of every file, even if read at the same time)
+	 * @return The time in milliseconds
+	 */
+	public long getParseMillis();
+
+	/**
+	 * Returns the number of files loaded from the snapshot
+	 * @return The number of files
+	 */
+	public int getSnapshotFilesLoaded();
+
+	/**
+	 * Returns the number of exports finished, successful or not
+	 * @return The number of exports
+	 */
+	public int getExports();
+
+	/**
+	 * Returns the total number of elements written by the exports
+	 * @return The number of elements
+	 */
+	public long getElementsWritten();
+
+	/**
+	 * Returns the total number of bytes written by the exports
+	 * @return The number of bytes
+	 */
+	public long getBytesWritten();
+
+	/**
+	 * Returns the total time spent by the exports, as wall-clock time: the exports running at the same time
+	 * (like the ones of {@link ExportProfile#exportAll(FileList, java.util.List, int)}) are counted only once
+	 * @return The time in milliseconds
+	 */
+	public long getWriteMillis();
+
+	/**
+	 * Returns the number of elements written per second of export (see {@link #getWriteMillis()})
+	 * @return The rate, 0 if nothing has been exported
+	 */
+	public double getElementsPerSecond();
+
+	/**
+	 * Returns the total number of link traversals (a linked subtree written or copied from the cache)
+	 * @return The number of traversals
+	 */
+	public long getLinkTraversals();
+
+	/**
+	 * Returns the number of lookups of the rows of a linked file matching a value
+	 * @return The number of lookups
+	 */
+	public long getFilteredLookups();
+
+	/**
+	 * Returns the number of rows checked against a search link
+	 * @return The number of rows
+	 */
+	public long getSearchChecks();
+
+	/**
+	 * Returns the number of rows not written because of a search link
+	 * @return The number of rows
+	 */
+	public long getRowsFilteredOut();
+
+	/**
+	 * Returns the number of linked subtrees copied from the fragment cache
+	 * @return The number of hits
+	 */
+	public long getFragmentCacheHits();
+
+	/**
+	 * Returns the number of linked subtrees looked up in the fragment cache without being found
+	 * @return The number of misses
+	 */
+	public long getFragmentCacheMisses();
+
+	/**
+	 * Returns the ratio of the hits of the fragment cache to all of its lookups
+	 * @return The hit rate, from 0 to 1
+	 */
+	public double getFragmentCacheHitRate();
+
+	/**
+	 * Returns the printable summary of the metrics
+	 * @return The summary, see {@link ExportMetrics#toString()}
+	 */
+	public String getSummary();
+
+	/**
+	 * Returns the metrics as a JSON object
+	 * @return The JSON text, see {@link ExportMetrics#toJson()}
+	 */
+	public String getJson();
+
+	/**
+	 * Sets every metric back to zero
+	 */
+	public void reset();
+}
@@ -0,0 +1,568 @@
+package i42pc.traindata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * <p>This class represents the settings of an export, read from a properties file, so that the export can run without any console input.</p>
+ * <p>The supported keys are:<br>
+ * <ul>
+ * <li>{@code output}: the path of the resulting xml file (required)</li>
+ * <li>{@code root.tag}: the name of the root tag (by default, {@code services})</li>
+ * <li>{@code starting.file}: the name of the starting file (required)</li>
+ * <li>{@code row.tag.<file>}: the row tag of a file, see {@link FileData#setRowTag(String)}</li>
+ * <li>{@code valid.titles.<file>}: the comma separated valid titles of a file, see {@link FileData#setValidTitles(ArrayList)}</li>
+ * <li>{@code hidden.titles.<file>}: the comma separated titles of a file not to be printed: every other title is valid</li>
+ * <li>{@code link.<n>}: a link, as {@code sourceFile, sourceTitle, destinationFile, destinationTitle[, destinationRowName]},
+ * see {@link FileList#addFileLink(String, String, String, String, String)}</li>
+ * <li>{@code search.<n>}: a search link, as {@code sourceFile, sourceTitle, destinationFile, destinationTitle},
+ * see {@link FileList#addSearchLink(String, String, String, String)}</li>
+ * <li>{@code service.date}: the only day to be exported, as {@code yyyyMMdd}, see {@link XMLFileWriter#setServiceDate(String)}</li>
+ * <li>{@code region}: the only region to be exported, as {@code minLat, minLon, maxLat, maxLon},
+ * see {@link XMLFileWriter#setRegion(double, double, double, double)}</li>
+ * </ul>
+ * The links and the search links are added in the order of their numbers {@code <n>}, which must be all different.
+ * For example:<pre>
+ * output=./output/one.xml
+ * starting.file=trips.txt
+ * row.tag.trips.txt=service_id
+ * valid.titles.trips.txt=service_id, trip_id, route_id
+ * link.1=trips.txt, trip_id, stop_times.txt, trip_id
+ * link.2=trips.txt, route_id, routes.txt, route_id, #NO#PRINT#
+ * </pre>
+ * <p>The same profile can be applied to many FileList objects, and many profiles can be applied in turn to the same FileList,
+ * as applying a profile resets the previous settings of the files (see {@link FileList#resetSettings()}).</p>
+ */
+public class ExportProfile {
+	public static final String DEFAULT_ROOT_TAG = "services";
+
+	private static final String OUTPUT = "output";
+	private static final String ROOT_TAG = "root.tag";
+	private static final String STARTING_FILE = "starting.file";
+	private static final String ROW_TAG = "row.tag.";
+	private static final String VALID_TITLES = "valid.titles.";
+	private static final String HIDDEN_TITLES = "hidden.titles.";
+	private static final String LINK = "link.";
+	private static final String SEARCH = "search.";
+	private static final String SERVICE_DATE = "service.date";
+	private static final String REGION = "region";
+	private static final String NULL_ROW_NAME = "#null#";
+
+	private String name;
+	private String outputPath;
+	private String rootTag = DEFAULT_ROOT_TAG;
+	private String startingFile;
+	private LinkedHashMap<String, String> rowTags = new LinkedHashMap<String, String>();
+	private LinkedHashMap<String, ArrayList<String>> validTitles = new LinkedHashMap<String, ArrayList<String>>();
+	private LinkedHashMap<String, ArrayList<String>> hiddenTitles = new LinkedHashMap<String, ArrayList<String>>();
+	private ArrayList<String[]> links = new ArrayList<String[]>();
+	private String serviceDate = null;
+	private double[] region = null;
+	private String invalidSetting = null;
+
+	/**
+	 * Constructor for an empty profile: the settings must be added through the setters
+	 * @param name The name of the profile, used in the messages
+	 */
+	public ExportProfile(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Reads a profile from a properties file (encoded in utf-8)
+	 * @param file The properties file
+	 * @return The profile, named after the file
+	 * @throws IOException If the file can't be read, or it contains an unknown key or a malformed value
+	 */
+	public static ExportProfile load(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+		} finally {
+			in.close();
+		}
+		return fromProperties(file.getName(), properties);
+	}
+
+	/**
+	 * Creates a profile from some properties, with the keys described in the documentation of the class
+	 * @param name The name of the profile, used in the messages
+	 * @param properties The settings of the profile
+	 * @return The profile
+	 * @throws IOException If the properties contain an unknown key or a malformed value
+	 */
+	public static ExportProfile fromProperties(String name, Properties properties) throws IOException {
+		ExportProfile profile = new ExportProfile(name);
+		TreeMap<Integer, String[]> links = new TreeMap<Integer, String[]>();
+		for (String key : properties.stringPropertyNames()) {
+			String value = properties.getProperty(key).trim();
+			if (key.equals(OUTPUT))
+				profile.setOutputPath(value);
+			else if (key.equals(ROOT_TAG))
+				profile.setRootTag(value);
+			else if (key.equals(STARTING_FILE))
+				profile.setStartingFile(value);
+			else if (key.equals(SERVICE_DATE)) {
+				if (!ServiceCalendar.isDate(value))
+					throw new IOException(name + ": " + SERVICE_DATE + " must be a date as yyyyMMdd");
+				profile.setServiceDate(value);
+			}
+			else if (key.equals(REGION)) {
+				double[] bounds = parseRegion(value);
+				if (bounds == null)
+					throw new IOException(name + ": " + REGION + " must be minLat, minLon, maxLat, maxLon");
+				profile.setRegion(bounds[0], bounds[1], bounds[2], bounds[3]);
+			}
+			else if (key.startsWith(ROW_TAG))
+				profile.setRowTag(key.substring(ROW_TAG.length()), value);
+			else if (key.startsWith(VALID_TITLES))
+				profile.setValidTitles(key.substring(VALID_TITLES.length()), splitList(value));
+			else if (key.startsWith(HIDDEN_TITLES))
+				profile.setHiddenTitles(key.substring(HIDDEN_TITLES.length()), splitList(value));
+			else if (key.startsWith(LINK) || key.startsWith(SEARCH)) {
+				boolean search = key.startsWith(SEARCH);
+				String number = key.substring(search ? SEARCH.length() : LINK.length());
+				ArrayList<String> fields = splitList(value);
+				if (fields.size() != 4 && (search || fields.size() != 5))
+					throw new IOException(name + ": wrong number of fields for " + key);
+				String[] link = new String[6];
+				link[0] = search ? SEARCH : LINK;
+				for (int i = 0; i < fields.size(); i++) {
+					link[i + 1] = fields.get(i);
+				}
+				try {
+					if (links.put(Integer.valueOf(number), link) != null)
+						throw new IOException(name + ": the link number " + number + " is used twice");
+				} catch (NumberFormatException e) {
+					throw new IOException(name + ": " + key + " must end with a number");
+				}
+			}
+			else
+				throw new IOException(name + ": unknown key " + key);
+		}
+		for (String[] link : links.values()) {
+			if (link[0].equals(SEARCH))
+				profile.addSearchLink(link[1], link[2], link[3], link[4]);
+			else
+				profile.addFileLink(link[1], link[2], link[3], link[4], (link[5] == null || link[5].equals(NULL_ROW_NAME)) ? null : link[5]);
+		}
+		if (profile.outputPath == null || profile.outputPath.isEmpty())
+			throw new IOException(name + ": missing " + OUTPUT);
+		if (profile.startingFile == null || profile.startingFile.isEmpty())
+			throw new IOException(name + ": missing " + STARTING_FILE);
+		return profile;
+	}
+
+	/**
+	 * Parses the bounds of a region
+	 * @param value The bounds, as {@code minLat, minLon, maxLat, maxLon}
+	 * @return The four bounds, or null if they are malformed
+	 */
+	static double[] parseRegion(String value) {
+		ArrayList<String> fields = splitList(value);
+		if (fields.size() != 4)
+			return null;
+		double[] bounds = new double[4];
+		try {
+			for (int i = 0; i < bounds.length; i++) {
+				bounds[i] = Double.parseDouble(fields.get(i));
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return (bounds[0] <= bounds[2] && bounds[1] <= bounds[3]) ? bounds : null;
+	}
+
+	private static ArrayList<String> splitList(String value) {
+		ArrayList<String> out = new ArrayList<String>();
+		for (String item : value.split(",")) {
+			if (!item.trim().isEmpty())
+				out.add(item.trim());
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the name of the profile
+	 * @return The name of the profile
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the path of the resulting xml file
+	 * @return The output path
+	 */
+	public String getOutputPath() {
+		return outputPath;
+	}
+
+	/**
+	 * Sets the path of the resulting xml file
+	 * @param outputPath The output path
+	 */
+	public void setOutputPath(String outputPath) {
+		this.outputPath = outputPath;
+	}
+
+	/**
+	 * Returns the name of the root tag
+	 * @return The name of the root tag
+	 */
+	public String getRootTag() {
+		return rootTag;
+	}
+
+	/**
+	 * Sets the name of the root tag
+	 * @param rootTag The name of the root tag
+	 */
+	public void setRootTag(String rootTag) {
+		this.rootTag = rootTag;
+	}
+
+	/**
+	 * Sets the starting file, see {@link FileList#setStartingFile(String)}
+	 * @param fileName The name of the starting file
+	 */
+	public void setStartingFile(String fileName) {
+		this.startingFile = fileName;
+	}
+
+	/**
+	 * Returns the only day to be exported
+	 * @return The date, as {@code yyyyMMdd}, or null if every day is exported
+	 */
+	public String getServiceDate() {
+		return serviceDate;
+	}
+
+	/**
+	 * Sets the only day to be exported, see {@link XMLFileWriter#setServiceDate(String)}
+	 * @param date The date, as {@code yyyyMMdd}, null to export every day
+	 */
+	public void setServiceDate(String date) {
+		this.serviceDate = date;
+	}
+
+	/**
+	 * Returns the only region to be exported
+	 * @return The bounds, as {minLat, minLon, maxLat, maxLon}, or null if every region is exported
+	 */
+	public double[] getRegion() {
+		return (region == null) ? null : region.clone();
+	}
+
+	/**
+	 * Sets the only region to be exported, see {@link XMLFileWriter#setRegion(double, double, double, double)}
+	 * @param minLat The lowest latitude of the region
+	 * @param minLon The lowest longitude of the region
+	 * @param maxLat The highest latitude of the region
+	 * @param maxLon The highest longitude of the region
+	 */
+	public void setRegion(double minLat, double minLon, double maxLat, double maxLon) {
+		this.region = new double[] {minLat, minLon, maxLat, maxLon};
+	}
+
+	/**
+	 * Exports every region again, see {@link #setRegion(double, double, double, double)}
+	 */
+	public void clearRegion() {
+		this.region = null;
+	}
+
+	/**
+	 * Sets the row tag of a file, see {@link FileData#setRowTag(String)}
+	 * @param fileName The name of the file
+	 * @param rowTag The title used as row tag
+	 */
+	public void setRowTag(String fileName, String rowTag) {
+		rowTags.put(fileName, rowTag);
+	}
+
+	/**
+	 * Sets the valid titles of a file, see {@link FileData#setValidTitles(ArrayList)}
+	 * @param fileName The name of the file
+	 * @param titles The valid titles
+	 */
+	public void setValidTitles(String fileName, ArrayList<String> titles) {
+		hiddenTitles.remove(fileName);
+		validTitles.put(fileName, new ArrayList<String>(titles));
+	}
+
+	/**
+	 * Sets the titles of a file not to be printed: all of the other titles of the file will be valid
+	 * @param fileName The name of the file
+	 * @param titles The titles not to be printed
+	 */
+	public void setHiddenTitles(String fileName, ArrayList<String> titles) {
+		validTitles.remove(fileName);
+		hiddenTitles.put(fileName, new ArrayList<String>(titles));
+	}
+
+	/**
+	 * Adds a link between two files, see {@link FileList#addFileLink(String, String, String, String, String)}
+	 * @param sourceFile The file from which the link starts
+	 * @param sourceTitle The starting point (a title in sourceFile) for the link
+	 * @param destinationFile The file in which the link ends
+	 * @param destinationTitle The ending point (a title in destinationFile) for the link
+	 * @param destinationRowName The substitutive row name to print the new file, null for none
+	 */
+	public void addFileLink(String sourceFile, String sourceTitle, String destinationFile, String destinationTitle, String destinationRowName) {
+		links.add(new String[] {LINK, sourceFile, sourceTitle, destinationFile, destinationTitle, destinationRowName});
+	}
+
+	/**
+	 * Adds a search link, see {@link FileList#addSearchLink(String, String, String, String)}
+	 * @param sourceFile The file to be filtered
+	 * @param sourceTitle The title of the values in sourceFile to be filtered
+	 * @param destinationFile The filtering file
+	 * @param destinationTitle The title of the values in destinationFile to be checked against
+	 */
+	public void addSearchLink(String sourceFile, String sourceTitle, String destinationFile, String destinationTitle) {
+		links.add(new String[] {SEARCH, sourceFile, sourceTitle, destinationFile, destinationTitle, null});
+	}
+
+	/**
+	 * <p>Applies the settings of this profile to the files of a FileList, replacing their previous settings.</p>
+	 * <p>If a setting refers to a file or a title which doesn't exist, it's stored for future use (see {@link #getInvalidSetting()}).</p>
+	 * @param fileList The FileList to be configured
+	 * @return True if every setting has been applied, false otherwise
+	 */
+	public boolean applyTo(FileList fileList) {
+		invalidSetting = null;
+		fileList.resetSettings();
+
+		fileList.setStartingFile(startingFile);
+		if (fileList.getStartingFile() == null)
+			return invalid(STARTING_FILE + "=" + startingFile);
+
+		for (Map.Entry<String, String> rowTag : rowTags.entrySet()) {
+			FileData file = fileList.getFile(rowTag.getKey());
+			if (file == null || !file.setRowTag(rowTag.getValue()))
+				return invalid(ROW_TAG + rowTag.getKey() + "=" + rowTag.getValue());
+		}
+		for (Map.Entry<String, ArrayList<String>> titles : validTitles.entrySet()) {
+			FileData file = fileList.getFile(titles.getKey());
+			if (file == null || !file.setValidTitles(titles.getValue()))
+				return invalid(VALID_TITLES + titles.getKey() + "=" + titles.getValue());
+		}
+		for (Map.Entry<String, ArrayList<String>> titles : hiddenTitles.entrySet()) {
+			FileData file = fileList.getFile(titles.getKey());
+			if (file == null)
+				return invalid(HIDDEN_TITLES + titles.getKey() + "=" + titles.getValue());
+			ArrayList<String> visibleTitles = file.getTitles();
+			for (String title : titles.getValue()) {
+				if (!visibleTitles.remove(title))
+					return invalid(HIDDEN_TITLES + titles.getKey() + "=" + titles.getValue());
+			}
+			file.setValidTitles(visibleTitles);
+		}
+		for (String[] link : links) {
+			boolean added;
+			if (link[0].equals(SEARCH))
+				added = fileList.addSearchLink(link[1], link[2], link[3], link[4]);
+			else
+				added = fileList.addFileLink(link[1], link[2], link[3], link[4], link[5]);
+			if (!added)
+				return invalid(link[0] + Arrays.asList(link).subList(1, 5));
+		}
+		return true;
+	}
+
+	/**
+	 * <p>Runs the whole export: applies this profile to the FileList and writes the resulting file.</p>
+	 * @param fileList The FileList containing all of the files, already read
+	 * @param fragmentCacheSize The size in bytes of the cache of the linked subtrees (see {@link XMLFileWriter#enableFragmentCache(int)}), 0 to disable it
+	 * @return True if the file has been written, false otherwise
+	 */
+	public boolean export(FileList fileList, int fragmentCacheSize) {
+		return export(fileList, fragmentCacheSize, 1);
+	}
+
+	/**
+	 * <p>Runs the whole export like {@link #export(FileList, int)}, rendering the rows of the starting file on a pool of threads
+	 * (see {@link XMLFileWriter#printAll(String, int)}).</p>
+	 * @param fileList The FileList containing all of the files, already read
+	 * @param fragmentCacheSize The size in bytes of the cache of the linked subtrees, split among the threads, 0 to disable it
+	 * @param threads The number of threads rendering the rows
+	 * @return True if the file has been written, false otherwise
+	 */
+	public boolean export(FileList fileList, int fragmentCacheSize, int threads) {
+		return export(fileList, fragmentCacheSize, threads, null);
+	}
+
+	/**
+	 * <p>Runs the whole export like {@link #export(FileList, int, int)}, reporting its progress (see {@link XMLFileWriter#setProgressListener(ProgressListener)}).</p>
+	 * @param fileList The FileList containing all of the files, already read
+	 * @param fragmentCacheSize The size in bytes of the cache of the linked subtrees, split among the threads, 0 to disable it
+	 * @param threads The number of threads rendering the rows
+	 * @param listener The listener receiving the progress, null for none
+	 * @return True if the file has been written, false otherwise
+	 */
+	public boolean export(FileList fileList, int fragmentCacheSize, int threads, ProgressListener listener) {
+		if (!applyTo(fileList))
+			return false;
+		XMLFileWriter fw = newWriter(fileList, fragmentCacheSize);
+		if (fw == null)
+			return false;
+		fw.setProgressListener(listener);
+		return fw.printAll(rootTag, threads);
+	}
+
+	/**
+	 * <p>Runs the exports of many profiles together, scanning every starting file only once.</p>
+	 * <p>Every profile is applied in turn and its render plan compiled (see {@link RenderPlan}), then every row of the starting file
+	 * is written to all of the files of the profiles sharing it. The files are the same as the ones written by {@link #export(FileList, int)}.</p>
+	 * <p>When it returns, the settings of the files are reset (see {@link FileList#resetSettings()}).</p>
+	 * @param fileList The FileList containing all of the files, already read
+	 * @param profiles The profiles to be exported
+	 * @param fragmentCacheSize The size in bytes of the cache of the linked subtrees for every file (see {@link XMLFileWriter#enableFragmentCache(int)}), 0 to disable it
+	 * @return The profiles which couldn't be exported (an empty list if every export is successful)
+	 */
+	public static ArrayList<ExportProfile> exportAll(FileList fileList, List<ExportProfile> profiles, int fragmentCacheSize) {
+		return exportAll(fileList, profiles, fragmentCacheSize, null);
+	}
+
+	/**
+	 * <p>Runs the exports of many profiles together like {@link #exportAll(FileList, List, int)}, reporting their overall progress:
+	 * the rows done are the rows of all of the starting files, and the elements are the ones written to all of the files.</p>
+	 * @param fileList The FileList containing all of the files, already read
+	 * @param profiles The profiles to be exported
+	 * @param fragmentCacheSize The size in bytes of the cache of the linked subtrees for every file, 0 to disable it
+	 * @param listener The listener receiving the progress (see {@link XMLFileWriter#setProgressListener(ProgressListener)}), null for none
+	 * @return The profiles which couldn't be exported (an empty list if every export is successful)
+	 */
+	public static ArrayList<ExportProfile> exportAll(FileList fileList, List<ExportProfile> profiles, int fragmentCacheSize, ProgressListener listener) {
+		ArrayList<ExportProfile> failed = new ArrayList<ExportProfile>();
+		// compiles the plans of all of the profiles, grouping them by starting file
+		XMLFileWriter[] writers = new XMLFileWriter[profiles.size()];
+		RenderPlan[] plans = new RenderPlan[profiles.size()];
+		LinkedHashMap<FileData, ArrayList<Integer>> groups = new LinkedHashMap<FileData, ArrayList<Integer>>();
+		for (int i = 0; i < profiles.size(); i++) {
+			ExportProfile profile = profiles.get(i);
+			if (!profile.applyTo(fileList)) {
+				failed.add(profile);
+				continue;
+			}
+			XMLFileWriter fw = profile.newWriter(fileList, fragmentCacheSize);
+			if (fw == null) {
+				failed.add(profile);
+				continue;
+			}
+			RenderPlan plan;
+			try {
+				plan = fw.compilePlan();
+			} catch (Exception e) {
+				plan = null;
+			}
+			if (plan == null || !plan.isValid() || !fw.startRoot(profile.rootTag)) {
+				fw.abort();
+				failed.add(profile);
+				continue;
+			}
+			writers[i] = fw;
+			plans[i] = plan;
+			if (!groups.containsKey(plan.getFile()))
+				groups.put(plan.getFile(), new ArrayList<Integer>());
+			groups.get(plan.getFile()).add(i);
+		}
+		fileList.resetSettings();
+		
+		ProgressTracker progress = null;
+		if (listener != null) {
+			long totalRows = 0;
+			for (FileData startingFile : groups.keySet()) {
+				totalRows += startingFile.getRowCount();
+			}
+			progress = new ProgressTracker(listener, totalRows, XMLFileWriter.DEFAULT_PROGRESS_INTERVAL);
+		}
+		
+		// writes every row of every starting file to all of the files sharing it
+		for (Map.Entry<FileData, ArrayList<Integer>> group : groups.entrySet()) {
+			ArrayList<Integer> active = group.getValue();
+			RowView row = group.getKey().newRowView();
+			for (int rowId = 0; rowId < group.getKey().getRowCount() && !active.isEmpty(); rowId++) {
+				row.moveTo(rowId);
+				for (int j = active.size() - 1; j >= 0; j--) {
+					int i = active.get(j);
+					if (!writers[i].addRow(plans[i], row)) {
+						writers[i].abort();
+						failed.add(profiles.get(i));
+						active.remove(j);
+					}
+				}
+				if (progress != null && progress.addRows(1))
+					progress.report(countElements(writers));
+			}
+			if (progress != null)
+				progress.addRows(group.getKey().getRowCount() - row.getRowId() - 1); // the rows skipped after every file failed
+			for (int i : active) {
+				if (!writers[i].endRoot())
+					failed.add(profiles.get(i));
+			}
+		}
+		if (progress != null)
+			progress.finish(countElements(writers), failed.isEmpty());
+		return failed;
+	}
+
+	private static long countElements(XMLFileWriter[] writers) {
+		long elements = 0;
+		for (XMLFileWriter fw : writers) {
+			if (fw != null)
+				elements += fw.getElementCount();
+		}
+		return elements;
+	}
+
+	/**
+	 * Creates the writer of the resulting file, creating its folder if needed
+	 * @return The writer, or null if the service date or the region can't be applied
+	 */
+	private XMLFileWriter newWriter(FileList fileList, int fragmentCacheSize) {
+		File parent = new File(outputPath).getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory())
+			parent.mkdirs();
+		XMLFileWriter fw = new XMLFileWriter(fileList, outputPath);
+		if (fragmentCacheSize > 0)
+			fw.enableFragmentCache(fragmentCacheSize);
+		if (serviceDate != null && !fw.setServiceDate(serviceDate)) {
+			fw.abort();
+			invalid(SERVICE_DATE + "=" + serviceDate);
+			return null;
+		}
+		if (region != null && !fw.setRegion(region[0], region[1], region[2], region[3])) {
+			fw.abort();
+			invalid(REGION + "=" + Arrays.toString(region));
+			return null;
+		}
+		return fw;
+	}
+
+	/**
+	 * Returns the setting which couldn't be applied by the last call of {@link #applyTo(FileList)}
+	 * @return The invalid setting, null if every setting has been applied
+	 */
+	public String getInvalidSetting() {
+		return invalidSetting;
+	}
+
+	private boolean invalid(String setting) {
+		invalidSetting = setting;
+		return false;
+	}
+}
@@ -0,0 +1,93 @@
+package i42pc.traindata;
+
+/**
+ * <p>This class is an immutable snapshot of the progress of an export, passed to a {@link ProgressListener}.</p>
+ * <p>The throughput and the estimated time left are computed from the rows of the starting file done so far,
+ * assuming the remaining rows take the same time on average.
+ */
+public final class ExportProgress {
+	private final long rowsDone;
+	private final long totalRows;
+	private final long elementsWritten;
+	private final long elapsedNanos;
+
+	/**
+	 * Constructor for this object
+	 * @param rowsDone The number of rows of the starting file written (or filtered out)
+	 * @param totalRows The number of rows of the starting file
+	 * @param elementsWritten The number of elements written
+	 * @param elapsedNanos The time since the export started, in nanoseconds
+	 */
+	ExportProgress(long rowsDone, long totalRows, long elementsWritten, long elapsedNanos) {
+		this.rowsDone = rowsDone;
+		this.totalRows = totalRows;
+		this.elementsWritten = elementsWritten;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of rows of the starting file already done
+	 * @return The number of rows
+	 */
+	public long getRowsDone() {
+		return rowsDone;
+	}
+
+	/**
+	 * Returns the number of rows of the starting file
+	 * @return The number of rows
+	 */
+	public long getTotalRows() {
+		return totalRows;
+	}
+
+	/**
+	 * Returns the part of the rows already done
+	 * @return The fraction done, from 0 to 1
+	 */
+	public double getFractionDone() {
+		return (totalRows == 0) ? 1 : (double) rowsDone / totalRows;
+	}
+
+	/**
+	 * Returns the number of elements written so far
+	 * @return The number of elements
+	 */
+	public long getElementsWritten() {
+		return elementsWritten;
+	}
+
+	/**
+	 * Returns the time since the export started
+	 * @return The time in milliseconds
+	 */
+	public long getElapsedMillis() {
+		return elapsedNanos / 1000000;
+	}
+
+	/**
+	 * Returns the number of rows of the starting file done per second
+	 * @return The rate, 0 if no time has passed
+	 */
+	public double getRowsPerSecond() {
+		return (elapsedNanos == 0) ? 0 : rowsDone * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of elements written per second
+	 * @return The rate, 0 if no time has passed
+	 */
+	public double getElementsPerSecond() {
+		return (elapsedNanos == 0) ? 0 : elementsWritten * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the estimated time left to the end of the export
+	 * @return The time in milliseconds, or -1 if it can't be estimated yet (no row done)
+	 */
+	public long getEtaMillis() {
+		if (rowsDone == 0)
+			return (totalRows == 0) ? 0 : -1;
+		return (long) ((double) elapsedNanos * (totalRows - rowsDone) / rowsDone / 1000000);
+	}
+}
@@ -0,0 +1,231 @@
+package i42pc.traindata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <p>This class implements {@link XMLEmitter} by writing the utf-8 bytes of the document straight into a large buffer.</p>
+ * <p>It produces exactly the same bytes as {@link StaxXMLEmitter}, but:<br>
+ * <ul><li>The bytes of every tag and attribute name are encoded only once, the first time the name is used</li>
+ * <li>Attribute values are copied as they are, unless they contain characters needing to be escaped or encoded</li>
+ * <li>The buffer is written to the underlying stream only when it's full</li></ul>
+ * <p>It can also capture fragments of the document, see {@link CapturingXMLEmitter}.
+ */
+public class FastXMLEmitter implements CapturingXMLEmitter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] DECLARATION = "<?xml version=\"1.0\" encoding=\"utf-8\"?>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] LT = "&lt;".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] GT = "&gt;".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.UTF_8);
+
+	private OutputStream out;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+
+	private HashMap<String, byte[]> startTags = new HashMap<String, byte[]>();
+	private HashMap<String, byte[]> endTags = new HashMap<String, byte[]>();
+	private HashMap<String, byte[]> attributeNames = new HashMap<String, byte[]>();
+	private byte[][] openElements = new byte[16][];
+	private int depth = 0;
+	private boolean startTagOpen = false;
+	
+	private int[] fragmentStarts = new int[16];
+	private int openFragments = 0;
+	private int captureStart = 0;
+	private byte[] captured = new byte[BUFFER_SIZE];
+	private int capturedLength = 0;
+
+	/**
+	 * Constructor for this object
+	 * @param out The stream the document will be written to
+	 */
+	public FastXMLEmitter(OutputStream out) {
+		this.out = out;
+	}
+
+	public void writeStartDocument() throws IOException {
+		write(DECLARATION);
+	}
+
+	public void writeStartElement(String name) throws IOException {
+		closeStartTag();
+		byte[] startTag = startTags.get(name);
+		if (startTag == null) {
+			startTag = ("<" + name).getBytes(StandardCharsets.UTF_8);
+			startTags.put(name, startTag);
+			endTags.put(name, ("</" + name + ">").getBytes(StandardCharsets.UTF_8));
+		}
+		write(startTag);
+		if (depth == openElements.length)
+			openElements = Arrays.copyOf(openElements, depth * 2);
+		openElements[depth++] = endTags.get(name);
+		startTagOpen = true;
+	}
+
+	public void writeAttribute(String name, String value) throws IOException {
+		if (!startTagOpen)
+			throw new IOException("Attribute " + name + " written outside of a start tag");
+		byte[] attributeName = attributeNames.get(name);
+		if (attributeName == null) {
+			attributeName = (" " + name + "=\"").getBytes(StandardCharsets.UTF_8);
+			attributeNames.put(name, attributeName);
+		}
+		write(attributeName);
+		writeEscaped(value);
+		write((byte) '"');
+	}
+
+	public void writeEndElement() throws IOException {
+		if (depth == 0)
+			throw new IOException("No element to be closed");
+		closeStartTag();
+		write(openElements[--depth]);
+	}
+
+	public void writeEndDocument() throws IOException {
+		while (depth > 0) {
+			writeEndElement();
+		}
+	}
+
+	public void close() throws IOException {
+		flushBuffer();
+		out.close();
+	}
+
+	public void beginFragment() throws IOException {
+		closeStartTag();
+		if (openFragments == 0) {
+			captureStart = position;
+			capturedLength = 0;
+		}
+		else {
+			keepCaptured();
+		}
+		if (openFragments == fragmentStarts.length)
+			fragmentStarts = Arrays.copyOf(fragmentStarts, openFragments * 2);
+		fragmentStarts[openFragments++] = capturedLength;
+	}
+
+	public byte[] endFragment() throws IOException {
+		if (openFragments == 0)
+			throw new IOException("No fragment is being captured");
+		keepCaptured();
+		return Arrays.copyOfRange(captured, fragmentStarts[--openFragments], capturedLength);
+	}
+
+	public boolean isCapturing() {
+		return openFragments > 0;
+	}
+
+	public void writeFragment(byte[] fragment) throws IOException {
+		closeStartTag();
+		write(fragment);
+	}
+
+	/**
+	 * Ends the last start tag, if it's still waiting for attributes
+	 */
+	private void closeStartTag() throws IOException {
+		if (startTagOpen) {
+			write((byte) '>');
+			startTagOpen = false;
+		}
+	}
+
+	/**
+	 * Writes an attribute value, escaping the characters {@code & < > "} and encoding the non-ascii characters
+	 * @param value The value to be written
+	 */
+	private void writeEscaped(String value) throws IOException {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				switch (c) {
+				case '&':
+					write(AMP);
+					break;
+				case '<':
+					write(LT);
+					break;
+				case '>':
+					write(GT);
+					break;
+				case '"':
+					write(QUOT);
+					break;
+				default:
+					write((byte) c);
+					break;
+				}
+			}
+			else if (c < 0x800) {
+				write((byte) (0xc0 | (c >> 6)));
+				write((byte) (0x80 | (c & 0x3f)));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				write((byte) (0xf0 | (codePoint >> 18)));
+				write((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+				write((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+				write((byte) (0x80 | (codePoint & 0x3f)));
+			}
+			else if (Character.isSurrogate(c)) {
+				write((byte) '?'); // a lone surrogate can't be encoded
+			}
+			else {
+				write((byte) (0xe0 | (c >> 12)));
+				write((byte) (0x80 | ((c >> 6) & 0x3f)));
+				write((byte) (0x80 | (c & 0x3f)));
+			}
+		}
+	}
+
+	private void write(byte b) throws IOException {
+		if (position == buffer.length)
+			flushBuffer();
+		buffer[position++] = b;
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		if (position + bytes.length > buffer.length) {
+			flushBuffer();
+			if (bytes.length > buffer.length) {
+				if (openFragments > 0)
+					appendCaptured(bytes, 0, bytes.length);
+				out.write(bytes);
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (openFragments > 0)
+			keepCaptured();
+		out.write(buffer, 0, position);
+		position = 0;
+		captureStart = 0;
+	}
+
+	/**
+	 * Copies the bytes of the fragment being captured out of the buffer, before the buffer is emptied
+	 */
+	private void keepCaptured() {
+		appendCaptured(buffer, captureStart, position - captureStart);
+		captureStart = position;
+	}
+
+	private void appendCaptured(byte[] bytes, int offset, int length) {
+		if (capturedLength + length > captured.length)
+			captured = Arrays.copyOf(captured, Math.max(captured.length * 2, capturedLength + length));
+		System.arraycopy(bytes, offset, captured, capturedLength, length);
+		capturedLength += length;
+	}
+}
@@ -0,0 +1,449 @@
+package i42pc.traindata;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * <p>This class writes a synthetic feed, made of the same files (and with the same shape) read by {@link XMLFileReader},
+ * to test the tool on feeds of any size without outside data.</p>
+ * <p>The feed contains {@code agency.txt}, {@code routes.txt}, {@code stops.txt}, {@code calendar.txt}, {@code calendar_dates.txt},
+ * {@code trips.txt} and {@code stop_times.txt}. Its size depends on the scale factor:<br>
+ * <ul><li>The trips grow linearly: {@value #BASE_TRIPS} trips for every unit of scale (about 10 MB of stop times)</li>
+ * <li>The routes and the stops grow with the square root of the scale, as in a larger network</li>
+ * <li>The services are a quarter of the trips: a fraction of them (by default, {@value #DEFAULT_DATELESS_FRACTION}) has no calendar dates,
+ * so that the exports filtered by {@code calendar_dates.txt} leave some trips out, and every other one has one to three calendar dates</li></ul>
+ * <p>The values are skewed like in a real feed: the trips are spread on the routes (and the routes' stops on the stops)
+ * with a Zipf distribution, so that a few routes have most of the trips and a few stops are in most of the routes.
+ * Every trip follows all of the stops of its route, which has between {@value #MIN_ROUTE_STOPS} and {@value #MAX_ROUTE_STOPS} stops.</p>
+ * <p>The same scale, skew, seed and fraction of services without dates always produce the same feed.</p>
+ */
+public class FeedGenerator {
+	public static final int MIN_SCALE = 1;
+	public static final int MAX_SCALE = 1000;
+	public static final int BASE_TRIPS = 2500;
+	public static final double DEFAULT_SKEW = 1.1;
+	public static final long DEFAULT_SEED = 42;
+	public static final double DEFAULT_DATELESS_FRACTION = 0.25;
+
+	private static final int BASE_ROUTES = 60;
+	private static final int BASE_STOPS = 450;
+	private static final int MIN_ROUTE_STOPS = 5;
+	private static final int MAX_ROUTE_STOPS = 40;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"utf-8\"?><table>";
+	private static final String FOOTER = "</table>";
+
+	private int scale;
+	private double skew = DEFAULT_SKEW;
+	private long seed = DEFAULT_SEED;
+	private double datelessFraction = DEFAULT_DATELESS_FRACTION;
+
+	/**
+	 * Constructor for this object
+	 * @param scale The scale factor of the feed, from {@value #MIN_SCALE} to {@value #MAX_SCALE}
+	 */
+	public FeedGenerator(int scale) {
+		if (scale < MIN_SCALE || scale > MAX_SCALE)
+			throw new IllegalArgumentException("The scale must be between " + MIN_SCALE + " and " + MAX_SCALE + ": " + scale);
+		this.scale = scale;
+	}
+
+	/**
+	 * Sets the exponent of the Zipf distribution of the trips on the routes and of the stops of the routes
+	 * @param skew The exponent: 0 for a uniform distribution, the larger the more skewed (by default, {@value #DEFAULT_SKEW})
+	 */
+	public void setSkew(double skew) {
+		if (skew < 0)
+			throw new IllegalArgumentException("The skew can't be negative: " + skew);
+		this.skew = skew;
+	}
+
+	/**
+	 * Sets the seed of the random values
+	 * @param seed The seed (by default, {@value #DEFAULT_SEED})
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the fraction of the services without any row in {@code calendar_dates.txt}
+	 * @param fraction The fraction, from 0 to 1 (by default, {@value #DEFAULT_DATELESS_FRACTION})
+	 */
+	public void setDatelessFraction(double fraction) {
+		if (fraction < 0 || fraction > 1)
+			throw new IllegalArgumentException("The fraction of the services without dates must be between 0 and 1: " + fraction);
+		this.datelessFraction = fraction;
+	}
+
+	/**
+	 * Returns the number of trips of the feed
+	 * @return The number of trips
+	 */
+	public int getTripCount() {
+		return BASE_TRIPS * scale;
+	}
+
+	/**
+	 * Returns the number of routes of the feed
+	 * @return The number of routes
+	 */
+	public int getRouteCount() {
+		return (int) Math.ceil(BASE_ROUTES * Math.sqrt(scale));
+	}
+
+	/**
+	 * Returns the number of stops of the feed
+	 * @return The number of stops
+	 */
+	public int getStopCount() {
+		return (int) Math.ceil(BASE_STOPS * Math.sqrt(scale));
+	}
+
+	/**
+	 * Returns the number of services of the feed
+	 * @return The number of services
+	 */
+	public int getServiceCount() {
+		return Math.max(1, getTripCount() / 4);
+	}
+
+	/**
+	 * Writes all of the files of the feed into a folder, replacing the existing ones
+	 * @param folder The folder of the feed (it's created if it doesn't exist)
+	 * @throws IOException If a file can't be written
+	 */
+	public void generate(File folder) throws IOException {
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Can't create the folder " + folder);
+		Random random = new Random(seed);
+		int stopCount = getStopCount();
+		int routeCount = getRouteCount();
+		int agencyCount = 1 + scale / 100;
+
+		writeAgencies(new File(folder, "agency.txt"), agencyCount);
+		writeStops(new File(folder, "stops.txt"), stopCount, random);
+		int[][] routeStops = buildRouteStops(routeCount, stopCount, random);
+		writeRoutes(new File(folder, "routes.txt"), routeStops, agencyCount);
+		writeServices(new File(folder, "calendar.txt"), new File(folder, "calendar_dates.txt"), random);
+		writeTrips(new File(folder, "trips.txt"), new File(folder, "stop_times.txt"), routeStops, random);
+	}
+
+	private void writeAgencies(File file, int agencyCount) throws IOException {
+		Writer out = open(file);
+		try {
+			for (int agency = 0; agency < agencyCount; agency++) {
+				out.write("<row id=\"\">");
+				writeCell(out, "agency_timezone", "Europe/Rome");
+				writeCell(out, "agency_name", "Agency " + agency);
+				writeCell(out, "agency_url", "http://www.agency" + agency + ".example/");
+				writeCell(out, "agency_phone", " ");
+				writeCell(out, "agency_id", agencyId(agency));
+				writeCell(out, "agency_lang", "IT");
+				out.write("</row>");
+			}
+			out.write(FOOTER);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeStops(File file, int stopCount, Random random) throws IOException {
+		Writer out = open(file);
+		try {
+			for (int stop = 0; stop < stopCount; stop++) {
+				out.write("<row id=\"\">");
+				writeCell(out, "stop_lon", String.format(Locale.ROOT, "%.6f", 8.5 + random.nextDouble() * 2.5));
+				writeCell(out, "stop_id", stopId(stop));
+				writeCell(out, "stop_code", "");
+				writeCell(out, "stop_lat", String.format(Locale.ROOT, "%.6f", 45.0 + random.nextDouble() * 1.5));
+				writeCell(out, "stop_url", " ");
+				writeCell(out, "stop_desc", " ");
+				writeCell(out, "stop_name", stopName(stop));
+				writeCell(out, "location_type", "0");
+				writeCell(out, "parent_station", " ");
+				out.write("</row>");
+			}
+			out.write(FOOTER);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Chooses the stops of every route: the stops are drawn with a Zipf distribution, so that a few of them are hubs shared by many routes
+	 * @return The stops of every route, in the order they are visited
+	 */
+	private int[][] buildRouteStops(int routeCount, int stopCount, Random random) {
+		double[] stopWeights = zipf(stopCount);
+		int[][] routeStops = new int[routeCount][];
+		for (int route = 0; route < routeCount; route++) {
+			int length = Math.min(stopCount, MIN_ROUTE_STOPS + random.nextInt(MAX_ROUTE_STOPS - MIN_ROUTE_STOPS + 1));
+			int[] stops = new int[length];
+			boolean[] used = new boolean[stopCount];
+			for (int i = 0; i < length; i++) {
+				int stop = sample(stopWeights, random);
+				while (used[stop])
+					stop = random.nextInt(stopCount);
+				used[stop] = true;
+				stops[i] = stop;
+			}
+			routeStops[route] = stops;
+		}
+		return routeStops;
+	}
+
+	private void writeRoutes(File file, int[][] routeStops, int agencyCount) throws IOException {
+		Writer out = open(file);
+		try {
+			for (int route = 0; route < routeStops.length; route++) {
+				int[] stops = routeStops[route];
+				out.write("<row id=\"\">");
+				writeCell(out, "route_id", routeId(route));
+				writeCell(out, "route_long_name", stopName(stops[0]) + "-" + stopName(stops[stops.length - 1]));
+				writeCell(out, "route_text_color", "FFFFFF");
+				writeCell(out, "route_desc", " ");
+				writeCell(out, "route_type", "2");
+				writeCell(out, "agency_id", agencyId(route % agencyCount));
+				writeCell(out, "route_short_name", routeId(route));
+				writeCell(out, "route_url", " ");
+				writeCell(out, "route_color", String.format("%06X", (route * 2654435761L) & 0xffffff));
+				out.write("</row>");
+			}
+			out.write(FOOTER);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeServices(File calendarFile, File datesFile, Random random) throws IOException {
+		Writer calendar = open(calendarFile);
+		Writer dates = open(datesFile);
+		try {
+			for (int service = 0; service < getServiceCount(); service++) {
+				// weekdays, weekends or every day
+				int kind = random.nextInt(3);
+				String weekday = (kind == 1) ? "0" : "1";
+				String weekend = (kind == 0) ? "0" : "1";
+				calendar.write("<row id=\"\">");
+				writeCell(calendar, "end_date", "20181208");
+				writeCell(calendar, "sunday", weekend);
+				writeCell(calendar, "saturday", weekend);
+				writeCell(calendar, "tuesday", weekday);
+				writeCell(calendar, "service_id", serviceId(service));
+				writeCell(calendar, "wednesday", weekday);
+				writeCell(calendar, "thursday", weekday);
+				writeCell(calendar, "friday", weekday);
+				writeCell(calendar, "monday", weekday);
+				writeCell(calendar, "start_date", "20171211");
+				calendar.write("</row>");
+
+				// a fraction of the services runs only as in the calendar, without any exception
+				int dateCount = (random.nextDouble() < datelessFraction) ? 0 : 1 + random.nextInt(3);
+				int day = random.nextInt(360);
+				for (int i = 0; i < dateCount; i++) {
+					day += 1 + random.nextInt(5);
+					dates.write("<row id=\"\">");
+					writeCell(dates, "service_id", serviceId(service));
+					writeCell(dates, "date", date(day));
+					writeCell(dates, "exception_type", (random.nextInt(4) == 0) ? "1" : "2");
+					dates.write("</row>");
+				}
+			}
+			calendar.write(FOOTER);
+			dates.write(FOOTER);
+		} finally {
+			calendar.close();
+			dates.close();
+		}
+	}
+
+	private void writeTrips(File tripsFile, File stopTimesFile, int[][] routeStops, Random random) throws IOException {
+		double[] routeWeights = zipf(routeStops.length);
+		int serviceCount = getServiceCount();
+		Writer trips = open(tripsFile);
+		Writer stopTimes = open(stopTimesFile);
+		try {
+			for (int trip = 0; trip < getTripCount(); trip++) {
+				int route = sample(routeWeights, random);
+				int direction = random.nextInt(2);
+				int[] stops = routeStops[route];
+				trips.write("<row id=\"\">");
+				writeCell(trips, "trip_short_name", String.valueOf(100000 + trip));
+				writeCell(trips, "trip_id", tripId(trip));
+				writeCell(trips, "direction_id", String.valueOf(direction));
+				writeCell(trips, "route_id", routeId(route));
+				writeCell(trips, "service_id", serviceId(random.nextInt(serviceCount)));
+				writeCell(trips, "shape_id", " ");
+				writeCell(trips, "trip_headsign", stopName(stops[direction == 0 ? stops.length - 1 : 0]));
+				writeCell(trips, "block_id", " ");
+				trips.write("</row>");
+
+				int minutes = 5 * 60 + random.nextInt(18 * 60);
+				for (int i = 0; i < stops.length; i++) {
+					int stop = stops[direction == 0 ? i : stops.length - 1 - i];
+					String arrival = time(minutes);
+					if (i > 0 && i < stops.length - 1)
+						minutes += random.nextInt(2);
+					stopTimes.write("<row id=\"\">");
+					writeCell(stopTimes, "trip_id", tripId(trip));
+					writeCell(stopTimes, "arrival_time", arrival);
+					writeCell(stopTimes, "departure_time", time(minutes));
+					writeCell(stopTimes, "stop_id", stopId(stop));
+					writeCell(stopTimes, "stop_sequence", String.valueOf(i + 1));
+					writeCell(stopTimes, "stop_headsign", " ");
+					writeCell(stopTimes, "pickup_type", "0");
+					writeCell(stopTimes, "drop_off_type", "0");
+					stopTimes.write("</row>");
+					minutes += 2 + random.nextInt(8);
+				}
+			}
+			trips.write(FOOTER);
+			stopTimes.write(FOOTER);
+		} finally {
+			trips.close();
+			stopTimes.close();
+		}
+	}
+
+	private static Writer open(File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+		out.write(HEADER);
+		return out;
+	}
+
+	/**
+	 * Writes a title tag, escaping its value
+	 */
+	private static void writeCell(Writer out, String title, String value) throws IOException {
+		out.write('<');
+		out.write(title);
+		out.write('>');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '&')
+				out.write("&amp;");
+			else if (c == '<')
+				out.write("&lt;");
+			else if (c == '>')
+				out.write("&gt;");
+			else
+				out.write(c);
+		}
+		out.write("</");
+		out.write(title);
+		out.write('>');
+	}
+
+	/**
+	 * Computes the cumulative weights of a Zipf distribution on some items
+	 * @param count The number of items
+	 * @return The cumulative weights, the last one being 1
+	 */
+	private double[] zipf(int count) {
+		double[] cumulative = new double[count];
+		double total = 0;
+		for (int i = 0; i < count; i++) {
+			total += 1 / Math.pow(i + 1, skew);
+			cumulative[i] = total;
+		}
+		for (int i = 0; i < count; i++) {
+			cumulative[i] /= total;
+		}
+		return cumulative;
+	}
+
+	/**
+	 * Draws an item from a distribution
+	 * @param cumulative The cumulative weights of the items
+	 * @return The position of the item
+	 */
+	private static int sample(double[] cumulative, Random random) {
+		int position = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (position < 0)
+			position = -position - 1;
+		return Math.min(position, cumulative.length - 1);
+	}
+
+	private static String agencyId(int agency) {
+		return "AG" + agency;
+	}
+
+	private static String stopId(int stop) {
+		return String.valueOf(1000 + stop);
+	}
+
+	private static String stopName(int stop) {
+		return "STAZIONE " + (1000 + stop);
+	}
+
+	private static String routeId(int route) {
+		return "R" + (route + 1);
+	}
+
+	private static String tripId(int trip) {
+		return String.valueOf(9000000 + trip);
+	}
+
+	private static String serviceId(int service) {
+		return String.valueOf(5500000000000L + service);
+	}
+
+	/**
+	 * Formats a time as hh:mm:ss: the hours can go past 24, as allowed for the trips ending after midnight
+	 */
+	private static String time(int minutes) {
+		return String.format("%02d:%02d:00", minutes / 60, minutes % 60);
+	}
+
+	/**
+	 * Formats a date of 2018 as yyyymmdd
+	 * @param day The day of the year, starting from 0 (days past the end of the year are moved back)
+	 */
+	private static String date(int day) {
+		final int[] MONTH_DAYS = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+		day %= 365;
+		int month = 0;
+		while (day >= MONTH_DAYS[month]) {
+			day -= MONTH_DAYS[month];
+			month++;
+		}
+		return String.format("2018%02d%02d", month + 1, day + 1);
+	}
+
+	/**
+	 * Writes a synthetic feed
+	 * Usage: {@code FeedGenerator <folder> [<scale> [<skew> [<seed> [<dateless fraction>]]]]}
+	 * @param args The arguments of the program
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 5) {
+			System.out.println("Usage: FeedGenerator <folder> [<scale> [<skew> [<seed> [<dateless fraction>]]]]");
+			System.exit(1);
+		}
+		try {
+			FeedGenerator generator = new FeedGenerator(args.length > 1 ? Integer.parseInt(args[1]) : MIN_SCALE);
+			if (args.length > 2)
+				generator.setSkew(Double.parseDouble(args[2]));
+			if (args.length > 3)
+				generator.setSeed(Long.parseLong(args[3]));
+			if (args.length > 4)
+				generator.setDatelessFraction(Double.parseDouble(args[4]));
+			generator.generate(new File(args[0]));
+		} catch (IOException e) {
+			System.out.println("Error: " + e.getLocalizedMessage());
+			System.exit(1);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getLocalizedMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -1,6 +1,10 @@
 package i42pc.traindata;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>This class represents the data contained in a xml file.</p>
@@ -9,26 +13,58 @@ import java.util.ArrayList;
  * <li>The data is put in a table, with every column having a title.</li>
  * <li>Every row contains data for each and every title</li>
  * </ul>
+ * <p>The table is stored by column: every column is a {@link Column}, which keeps each distinct value only once.<br>
+ * The values are kept as Strings ({@link DictionaryColumn}), or as slices of the memory-mapped file if one has been set
+ * through {@link #setMappedFile(MappedFile)} ({@link SliceColumn}).<br>
+ * Once finished, the columns of times, dates, coordinates and flags can be kept as primitives instead, see {@link #setColumnTypes(Map, boolean)}.</p>
+ * <p>Once finished, the table is also available as an immutable {@link FrozenFileData}, which can be shared by many threads:
+ * the iteration methods of this class ({@link #getNextRow()}, {@link #nextLink()}, {@link #hasLinkFrom(String)}) keep their state
+ * inside the object, while {@link RowView} and {@link LinkCursor} keep it outside.</p>
  */
-public class FileData {
+public class FileData implements RowSource {
 	private String name;
 	private ArrayList<String> titles = new ArrayList<String>();
+	private HashMap<String, Integer> titleIndexes = new HashMap<String, Integer>();
 	private boolean titlesLocked = false;
-	private ArrayList<ArrayList<String>> dataSet = new ArrayList<ArrayList<String>>();
+	private ArrayList<Column> columns = new ArrayList<Column>();
+	private int rowCount = 0;
+	private int filledColumns = 0;
 	private ArrayList<Link> linkList = new ArrayList<Link>();
 	private int activeRow = 0;
 	private boolean finished = false;
 	private Link currentLink;
+	private Link[] columnLinks = null;
 	private int activeLinkCount = 0;
 	
 	private String rowTag;
 	private ArrayList<String> validTitles = null;
 	
+	private FrozenFileData frozen = null;
+	private MappedFile mappedFile = null;
+	
 	/**
 	 * <p>Basic constructor: initializes the object</p>
 	 */
 	public FileData() {}
 	
+	/**
+	 * This constructor creates a finished FileData object from columns already filled (for example when it's loaded from a snapshot)
+	 * This constructor is not intended to be used externally
+	 * @param name The name of the file
+	 * @param titles The titles of the columns
+	 * @param columns The columns, in the same order of the titles
+	 * @param rowCount The number of rows
+	 */
+	FileData(String name, ArrayList<String> titles, ArrayList<Column> columns, int rowCount) {
+		this.name = name;
+		this.titles = new ArrayList<String>(titles);
+		indexTitles();
+		this.titlesLocked = true;
+		this.columns = new ArrayList<Column>(columns);
+		this.rowCount = rowCount;
+		setFinished();
+	}
+	
 	/**
 	 * This constructor allows other FileData objects to be cloned into a new one.
 	 * This avoids the risk of passing by reference.
@@ -38,8 +74,10 @@ public class FileData {
 	private FileData(FileData other) {
 		this.name = other.name;
 		this.titles = new ArrayList<String>(other.titles);
+		this.titleIndexes = new HashMap<String, Integer>(other.titleIndexes);
 		this.titlesLocked = true;
-		this.dataSet = new ArrayList<ArrayList<String>>(other.dataSet);
+		this.columns = new ArrayList<Column>(other.columns);
+		this.rowCount = other.rowCount;
 		this.linkList = new ArrayList<Link>(other.linkList);
 		this.activeRow = 0;
 		this.finished = false;
@@ -69,10 +107,133 @@ public class FileData {
 	 * Returns the next row of the data contained in this object
 	 * This method automatically keeps track of the active row
 	 * Use in pair with {@link #hasNextRow()} to prevent an out of bound exception
+	 * The active row is kept inside this object: use {@link #newRowView()} to read the rows from many threads
 	 * @return A fresh ArrayList<String> containing the next row. This list can be modified without affecting the inner workings of this class
 	 */
 	public ArrayList<String> getNextRow() {
-		return new ArrayList<String>(dataSet.get(activeRow++));
+		return getRow(activeRow++);
+	}
+	
+	/**
+	 * Returns a given row of the data contained in this object, without affecting the active row
+	 * @param rowId The position of the row in the table
+	 * @return A fresh ArrayList<String> containing the row. This list can be modified without affecting the inner workings of this class
+	 */
+	public ArrayList<String> getRow(int rowId) {
+		ArrayList<String> out = new ArrayList<String>(columns.size());
+		for (Column column : columns) {
+			if (rowId < column.size())
+				out.add(column.get(rowId));
+		}
+		return out;
+	}
+	
+	/**
+	 * Returns a new read-only view on the rows of this object: see {@link RowView}
+	 * @return A new RowView, not pointing to any row yet
+	 */
+	public RowView newRowView() {
+		return new RowView(this);
+	}
+	
+	/**
+	 * Returns the value of a single cell, without copying the row
+	 * @param rowId The position of the row in the table
+	 * @param column The position of the column in the titles list
+	 * @return The value of the cell
+	 */
+	public String getValue(int rowId, int column) {
+		return columns.get(column).get(rowId);
+	}
+	
+	/**
+	 * Returns a column of the table
+	 * @param column The position of the column in the titles list
+	 * @return The column object, or null if no value has been added to the column
+	 */
+	Column getColumn(int column) {
+		return (column < columns.size()) ? columns.get(column) : null;
+	}
+	
+	/**
+	 * Returns the type of the values of a column (see {@link #setColumnTypes(Map, boolean)})
+	 * @param column The position of the column in the titles list
+	 * @return The type of the column
+	 */
+	public ColumnType getColumnType(int column) {
+		return columns.get(column).getType();
+	}
+	
+	/**
+	 * Returns the value of a cell of an integer, time or flag column, without parsing it (see {@link Column#getInt(int)})
+	 * @param rowId The position of the row in the table
+	 * @param column The position of the column in the titles list
+	 * @return The value of the cell
+	 * @throws UnsupportedOperationException If the column isn't an integer, time or flag one
+	 */
+	public int getInt(int rowId, int column) {
+		return columns.get(column).getInt(rowId);
+	}
+	
+	/**
+	 * Returns the value of a cell of a numeric column, without parsing it (see {@link Column#getDouble(int)})
+	 * @param rowId The position of the row in the table
+	 * @param column The position of the column in the titles list
+	 * @return The value of the cell
+	 * @throws UnsupportedOperationException If the column is a text one
+	 */
+	public double getDouble(int rowId, int column) {
+		return columns.get(column).getDouble(rowId);
+	}
+	
+	/**
+	 * <p>Converts the columns of a finished file to typed ones (see {@link ColumnType}), keeping the values as primitives instead of Strings.</p>
+	 * <p>Every value keeps exactly the same text: a column is converted only if all of its values can be formatted back exactly,
+	 * otherwise it stays a text one, even if its type has been declared.<br>
+	 * The immutable snapshot is created again (see {@link #getFrozen()}), so this must be called before using it.</p>
+	 * @param declaredTypes The types of some columns, by title ({@link ColumnType#TEXT} keeps a column as it is)
+	 * @param inferTypes True to find the type of the columns not declared, false to keep them as they are
+	 * @return True if the columns have been converted, false if the file isn't finished
+	 */
+	boolean setColumnTypes(Map<String, ColumnType> declaredTypes, boolean inferTypes) {
+		if (!finished)
+			return false;
+		for (int i = 0; i < columns.size(); i++) {
+			ColumnType type = declaredTypes.get(titles.get(i));
+			Column typed = null;
+			if (type != null)
+				typed = type.convert(columns.get(i));
+			else if (inferTypes)
+				typed = ColumnType.infer(columns.get(i));
+			if (typed != null)
+				columns.set(i, typed);
+		}
+		this.frozen = new FrozenFileData(name, titles, columns, rowCount);
+		return true;
+	}
+	
+	/**
+	 * Returns the number of cells filled in a row (it's the number of titles for every complete row)
+	 * @param rowId The position of the row in the table
+	 * @return The number of cells
+	 */
+	public int getCellCount(int rowId) {
+		if (rowId < rowCount - 1)
+			return columns.size();
+		int count = 0;
+		for (Column column : columns) {
+			if (rowId < column.size())
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of rows in the table
+	 * @return The number of rows
+	 */
+	public int getRowCount() {
+		return rowCount;
 	}
 	
 	/**
@@ -80,7 +241,7 @@ public class FileData {
 	 * @return True if a new row exists, false otherwise
 	 */
 	public boolean hasNextRow() {
-		if (activeRow <= dataSet.size() - 1)
+		if (activeRow <= rowCount - 1)
 			return true;
 		return false;
 	}
@@ -93,7 +254,7 @@ public class FileData {
 	 */
 	public boolean setValidTitles(ArrayList<String> validTitles) {
 		for (String vt : validTitles) {
-			if (!titles.contains(vt)) {
+			if (!titleIndexes.containsKey(vt)) {
 				this.validTitles = null;				
 				return false;
 			}
@@ -112,6 +273,17 @@ public class FileData {
 		return new ArrayList<String>(this.titles);
 	}
 	
+	/**
+	 * Returns a read-only view of the valid titles (if no valid titles have been set yet, it considers every title valid)
+	 * Unlike {@link #getValidTitles()} this doesn't copy the list
+	 * @return An unmodifiable List<String> containing the valid titles
+	 */
+	public List<String> getValidTitlesView() {
+		if (this.validTitles != null)
+			return Collections.unmodifiableList(this.validTitles);
+		return getTitlesView();
+	}
+	
 	/**
 	 * Sets which tag should be used as row tag:
 	 * This tag will be written to file instead of a <row> tag, also containing an attribute with its value
@@ -120,7 +292,7 @@ public class FileData {
 	 * @return True if the row tag name is an actual title, false otherwise
 	 */
 	public boolean setRowTag(String rowTag) {
-		if (titles.contains(rowTag)) {
+		if (titleIndexes.containsKey(rowTag)) {
 			this.rowTag = rowTag;				
 			return true;
 		}
@@ -144,6 +316,36 @@ public class FileData {
 		return new ArrayList<String>(titles);
 	}
 	
+	/**
+	 * Returns a read-only view of the titles: unlike {@link #getTitles()} this doesn't copy the list
+	 * @return An unmodifiable List<String> containing all of the titles
+	 */
+	public List<String> getTitlesView() {
+		return Collections.unmodifiableList(titles);
+	}
+	
+	/**
+	 * Returns the position of a title in the titles list, in constant time
+	 * @param title The title
+	 * @return The position of the title, or -1 if it doesn't exist
+	 */
+	public int getTitleIndex(String title) {
+		Integer index = titleIndexes.get(title);
+		return (index == null) ? -1 : index;
+	}
+	
+	/**
+	 * Rebuilds the map from every title to its position, keeping the first position of repeated titles like {@link ArrayList#indexOf(Object)}
+	 */
+	private void indexTitles() {
+		titleIndexes = new HashMap<String, Integer>(titles.size() * 2);
+		for (int i = 0; i < titles.size(); i++) {
+			if (!titleIndexes.containsKey(titles.get(i)))
+				titleIndexes.put(titles.get(i), i);
+		}
+		columnLinks = null;
+	}
+	
 	/**
 	 * <p>Sets the list of titles of the data to a given list</p>
 	 * @param titles An ArrayList of strings containing the new titles
@@ -153,6 +355,7 @@ public class FileData {
 		if (titlesLocked || finished)
 			return false;
 		this.titles = new ArrayList<String>(titles);
+		indexTitles();
 		return true;
 	}
 	
@@ -164,9 +367,11 @@ public class FileData {
 	public boolean addTitle(String newTitle) {
 		if (titlesLocked || finished)
 			return false;
-		if (titles.contains(newTitle))
+		if (titleIndexes.containsKey(newTitle))
 			return false;
+		titleIndexes.put(newTitle, titles.size());
 		this.titles.add(newTitle);
+		columnLinks = null;
 		return true;
 	}
 	
@@ -190,10 +395,25 @@ public class FileData {
 	
 	/**
 	 * This method signals that all of the data has been written and it can't be edited anymore 
+	 * @return The immutable snapshot of the data, see {@link #getFrozen()}
 	 */
-	public void setFinished() {
+	public FrozenFileData setFinished() {
 		activeRow = 0;
+		for (Column column : columns) {
+			column.trim();
+		}
+		this.frozen = new FrozenFileData(name, titles, columns, rowCount);
 		this.finished = true;
+		return frozen;
+	}
+	
+	/**
+	 * Returns the immutable snapshot of the data, created by {@link #setFinished()}
+	 * The snapshot keeps the name the file had when it was finished
+	 * @return The FrozenFileData object, or null if the data isn't finished yet
+	 */
+	public FrozenFileData getFrozen() {
+		return frozen;
 	}
 	
 	/**
@@ -204,30 +424,93 @@ public class FileData {
 		return finished;
 	}
 	
+	/**
+	 * <p>Returns the rows matching a predicate, without copying them (see {@link RowPredicate}).</p>
+	 * <p>The rows can then be read through a {@link RowView}, or through the rows of the immutable snapshot ({@link #getFrozen()}).
+	 * @param predicate The predicate
+	 * @return The selection of the matching rows, or null if a title of the predicate doesn't exist or the file isn't finished
+	 */
+	public RowSelection select(RowPredicate predicate) {
+		if (!finished)
+			return null;
+		return frozen.select(predicate);
+	}
+	
 	/**
 	 * This method returns a new FileData object, filtered with some given values.
 	 * It takes {@code this} and checks every row of data:
 	 * if the value in the column marked by the searchTitle is equal to searchValue,
 	 * then it includes this row in the new object, otherwise it doesn't include it
+	 * To filter the rows without copying them, see {@link #select(RowPredicate)}
 	 * @param searchValue The value for every row to be checked against
 	 * @param searchTitle The title of the column of data to be checked
 	 * @return A new, filtered FileData object
 	 */
 	public FileData cloneWithSomeValues(String searchValue, String searchTitle) {
+		int[] rowIds = getRowIds(searchValue, searchTitle);
+		if (rowIds == null) return null;
 		FileData out = new FileData(this);
-		ArrayList<ArrayList<String>> filteredDataSet = new ArrayList<ArrayList<String>>();
-		int titleId = this.titles.indexOf(searchTitle);
-		if (titleId == -1) return null;
-		for (ArrayList<String> entry : this.dataSet) {
-			if (entry.get(titleId).equals(searchValue)) {
-				filteredDataSet.add(new ArrayList<String>(entry));
-			}
+		ArrayList<Column> filteredColumns = new ArrayList<Column>(columns.size());
+		for (Column column : columns) {
+			filteredColumns.add(column.select(rowIds));
 		}
-		out.dataSet = filteredDataSet;
+		out.columns = filteredColumns;
+		out.rowCount = rowIds.length;
 		out.setFinished();
 		return out;
 	}
 	
+	/**
+	 * <p>Returns the ids (see {@link #getRow(int)}) of the rows whose value in the column marked by searchTitle is equal to searchValue.</p>
+	 * <p>Once the data is finished, the search goes through {@link FrozenFileData#getRowIds(String, String)}:
+	 * the first call for a title builds a hash index (value -> row ids) on that column,
+	 * so that every following call for the same title doesn't need to scan the whole table.</p>
+	 * @param searchValue The value for every row to be checked against
+	 * @param searchTitle The title of the column of data to be checked
+	 * @return The ids of the matching rows, in ascending order (an empty array if no row matches), or null if the title doesn't exist
+	 */
+	public int[] getRowIds(String searchValue, String searchTitle) {
+		if (finished)
+			return frozen.getRowIds(searchValue, searchTitle);
+		int titleId = getTitleIndex(searchTitle);
+		if (titleId == -1) return null;
+		if (titleId >= columns.size()) return new int[0];
+		Column column = columns.get(titleId);
+		int code = column.findCode(searchValue);
+		if (code == -1) return new int[0];
+		ArrayList<Integer> matches = new ArrayList<Integer>();
+		for (int i = 0; i < column.size(); i++) {
+			if (column.getCode(i) == code)
+				matches.add(i);
+		}
+		int[] out = new int[matches.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = matches.get(i);
+		return out;
+	}
+	
+	/**
+	 * Builds the hash index used by {@link #getRowIds(String, String)} for a title, if it doesn't exist yet (see {@link FrozenFileData#prepareIndex(String)})
+	 * @param searchTitle The title of the column to be indexed
+	 */
+	void prepareIndex(String searchTitle) {
+		if (finished)
+			frozen.prepareIndex(searchTitle);
+	}
+	
+	/**
+	 * <p>Checks if at least one row contains a given value in the column marked by searchTitle.</p>
+	 * <p>This only needs a lookup in the dictionary of the column, as the dictionary holds exactly the distinct values of the column.</p>
+	 * @param searchValue The value to be searched
+	 * @param searchTitle The title of the column of data to be checked
+	 * @return True if the value exists in such column, false otherwise or if the title doesn't exist
+	 */
+	public boolean containsValue(String searchValue, String searchTitle) {
+		int titleId = getTitleIndex(searchTitle);
+		if (titleId == -1 || titleId >= columns.size()) return false;
+		return columns.get(titleId).findCode(searchValue) != -1;
+	}
+	
 	/**
 	 * <p>Adds a single value to the data table and runs some controls on the data.</p>
 	 * <p>The controls run by this method are:<br>
@@ -238,11 +521,69 @@ public class FileData {
 	 * @return True if the operation is successful and all of the checks don't show errors
 	 */
 	public boolean addValue(String title, String value) {
+		return addValue(getTitleIndex(title), value);
+	}
+	
+	/**
+	 * <p>Adds a single value to the data table, like {@link #addValue(String, String)}, given the position of its title instead of the title itself</p>
+	 * @param index The position of the title of the column in the titles list
+	 * @param value The new value to be inserted
+	 * @return True if the operation is successful and all of the checks don't show errors
+	 */
+	boolean addValue(int index, String value) {
 		if (finished) return false;
-		int index = titles.indexOf(title);
-		if (index == -1 || index != dataSet.get(activeRow).size()) 
+		if (rowCount == 0 || index < 0 || index >= titles.size() || index != filledColumns) 
+			return false;
+		if (!prepareColumn(index))
+			return false;
+		columns.get(index).add(value);
+		filledColumns++;
+		return true;
+	}
+	
+	/**
+	 * <p>Adds a single value to the data table, like {@link #addValue(int, String)}, given the position of its bytes in the mapped file</p>
+	 * <p>This works only if a mapped file has been set through {@link #setMappedFile(MappedFile)}
+	 * @param index The position of the title of the column in the titles list
+	 * @param position The position of the first byte of the value in the mapped file
+	 * @param length The number of bytes of the value
+	 * @return True if the operation is successful and all of the checks don't show errors
+	 */
+	boolean addSlice(int index, long position, int length) {
+		if (finished || mappedFile == null) return false;
+		if (rowCount == 0 || index < 0 || index >= titles.size() || index != filledColumns) 
+			return false;
+		if (!prepareColumn(index))
 			return false;
-		dataSet.get(activeRow).add(value);
+		((SliceColumn) columns.get(index)).addSlice(position, length);
+		filledColumns++;
+		return true;
+	}
+	
+	/**
+	 * Creates the column for a title, if it doesn't exist yet (new columns can be created only in the first row)
+	 * @param index The position of the title in the titles list
+	 * @return True if the column exists, false if it can't be created
+	 */
+	private boolean prepareColumn(int index) {
+		if (index == columns.size()) {
+			if (rowCount != 1)
+				return false;
+			columns.add(mappedFile == null ? new DictionaryColumn() : new SliceColumn(mappedFile));
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>Makes the columns keep their values as slices of a memory-mapped file, instead of Strings.</p>
+	 * <p>It must be called before any value is added.
+	 * @param mappedFile The mapped file containing all of the values
+	 * @return True if the operation is successful, false if some value has already been added
+	 */
+	boolean setMappedFile(MappedFile mappedFile) {
+		if (!columns.isEmpty() || finished)
+			return false;
+		this.mappedFile = mappedFile;
 		return true;
 	}
 	
@@ -254,13 +595,13 @@ public class FileData {
 	 */
 	public boolean addNewLine() {
 		if (finished) return false;
-		if (dataSet.size() != 0) {
-			if (dataSet.get(activeRow).size() != titles.size()) {
+		if (rowCount != 0) {
+			if (filledColumns != titles.size()) {
 				return false;
 			}
-			activeRow++;
 		}
-		dataSet.add(new ArrayList<String>());
+		rowCount++;
+		filledColumns = 0;
 		return true;
 	}
 	
@@ -297,10 +638,10 @@ public class FileData {
 		}
 		out.append(System.lineSeparator());
 		int count = 0;
-		for (ArrayList<String> al : dataSet) {
+		for (int row = 0; row < rowCount; row++) {
 			first = true;
 			if (count++ % extendedFactor == 0) {
-				for (String data : al) {
+				for (String data : getRow(row)) {
 					if (!first) {
 						out.append(" - ");
 					}
@@ -327,10 +668,39 @@ public class FileData {
 		Link newLink = new Link(sourceTitle, destinationFile, destinationTitle, destinationRowName, isSearch);
 		
 		linkList.add(newLink);
+		columnLinks = null;
+	}
+	
+	/**
+	 * Removes every setting of the file: the row tag, the valid titles and the links starting from it
+	 * The data of the file isn't affected
+	 */
+	public void resetSettings() {
+		rowTag = null;
+		validTitles = null;
+		linkList = new ArrayList<Link>();
+		columnLinks = null;
+		currentLink = null;
+		activeLinkCount = 0;
+	}
+	
+	/**
+	 * Returns a new cursor on the links starting from this file: unlike {@link #nextLink()} and {@link #hasLinkFrom(String)},
+	 * it keeps its state outside of this object (see {@link LinkCursor})
+	 * @return A new LinkCursor, working on the links added until now
+	 */
+	public LinkCursor newLinkCursor() {
+		HashMap<String, Link> firstLinks = new HashMap<String, Link>();
+		for (Link l : linkList) {
+			if (!firstLinks.containsKey(l.getSourceTitle()))
+				firstLinks.put(l.getSourceTitle(), l);
+		}
+		return new LinkCursor(new ArrayList<Link>(linkList), firstLinks);
 	}
 	
 	/**
 	 * Starts an iterator which will return all of the links by calling {@link #nextLink()}
+	 * The iterator is kept inside this object: use {@link #newLinkCursor()} to iterate the links from many threads
 	 */
 	public void startLinkOut() {
 		activeLinkCount = 0;
@@ -358,6 +728,9 @@ public class FileData {
 	 * @return
 	 */
 	public boolean hasLinkFrom(String sourceTitle) {
+		int column = getTitleIndex(sourceTitle);
+		if (column != -1)
+			return hasLinkFrom(column);
 		for (Link l : linkList) {
 			if (l.getSourceTitle().equals(sourceTitle)) {
 				currentLink = l;
@@ -367,6 +740,34 @@ public class FileData {
 		return false;
 	}
 	
+	/**
+	 * Returns true if a link starting from the title of a column exists, like {@link #hasLinkFrom(String)} but given the position of the title
+	 * The first link added for every column is kept in a table, so that this is a constant time lookup
+	 * @param column The position of the title in the titles list
+	 * @return True if a link exists, false otherwise
+	 */
+	public boolean hasLinkFrom(int column) {
+		if (columnLinks == null)
+			indexLinks();
+		if (column < 0 || column >= columnLinks.length || columnLinks[column] == null)
+			return false;
+		currentLink = columnLinks[column];
+		return true;
+	}
+	
+	/**
+	 * Builds the table of the first link starting from every column
+	 */
+	private void indexLinks() {
+		Link[] links = new Link[titles.size()];
+		for (Link l : linkList) {
+			int column = getTitleIndex(l.getSourceTitle());
+			if (column != -1 && links[column] == null)
+				links[column] = l;
+		}
+		columnLinks = links;
+	}
+	
 	/**
 	 * Returns the title in the source file for the current link
 	 * Call this only after {@link #nextLink()} or {@link #hasLinkFrom()}
@@ -1,7 +1,15 @@
 package i42pc.traindata;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * <p>This class can aggregates multiple {@code FileData} instances.<br>
@@ -11,8 +19,17 @@ import java.util.ArrayList;
  */
 public class FileList {
 	private ArrayList<FileData> list;
+	private HashMap<String, FileData> filesByName = new HashMap<String, FileData>();
 	private File folder;
 	private String startingFile;
+	private boolean memoryMapped = false;
+	private File snapshotFile = null;
+	private ExportMetrics metrics = null;
+	private boolean inferColumnTypes = false;
+	private HashMap<String, HashMap<String, ColumnType>> columnTypes = new HashMap<String, HashMap<String, ColumnType>>();
+	private ServiceCalendar serviceCalendar = null;
+	private DepartureBoard departureBoard = null;
+	private StopIndex stopIndex = null;
 	
 	/**
 	 * <p>Basic constructor to initialize the object with the path of the folder containing the files
@@ -28,27 +45,282 @@ public class FileList {
 			this.folder = folder;
 	}
 	
+	/**
+	 * <p>Sets whether the files should be memory-mapped while reading them (see {@link XMLFileReader#setMemoryMapped(boolean)})
+	 * @param memoryMapped True to map the files in memory, false otherwise
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+	
+	/**
+	 * <p>Sets the file used to keep a binary snapshot of the parsed files, to restart faster (see {@link FileListSnapshot}).<br>
+	 * When it's set, the files are loaded from the snapshot as long as none of them has changed since it was written,
+	 * and the snapshot is written again after every successful reading of the files (if it can't be written, the files are just parsed again the next time).<br>
+	 * The files loaded from a snapshot are never memory-mapped, see {@link #setMemoryMapped(boolean)}.</p>
+	 * @param snapshotPath The path of the snapshot file, null to disable the snapshot
+	 */
+	public void setSnapshotFile(String snapshotPath) {
+		this.snapshotFile = (snapshotPath == null) ? null : new File(snapshotPath);
+	}
+	
+	/**
+	 * <p>Sets whether the type of the columns of every file read should be found automatically (false by default).</p>
+	 * <p>The columns whose values are all flags, integers, times or decimal numbers are then kept as primitives instead of Strings,
+	 * always giving back the same text (see {@link FileData#setColumnTypes(java.util.Map, boolean)}).<br>
+	 * This reduces the memory taken by numeric files and lets filters compare numbers instead of Strings,
+	 * but the text of a typed cell is formatted every time it's read, so writing the files becomes slower.
+	 * @param inferColumnTypes True to find the type of the columns, false to keep the columns not declared through {@link #setColumnType(String, String, ColumnType)} as text
+	 */
+	public void setColumnTypeInference(boolean inferColumnTypes) {
+		this.inferColumnTypes = inferColumnTypes;
+	}
+	
+	/**
+	 * <p>Declares the type of a column of a file, which is used instead of the inferred one (see {@link #setColumnTypeInference(boolean)}).</p>
+	 * <p>It must be set before reading the files. If some values of the column can't be kept exactly with the declared type, the column stays a text one.
+	 * @param fileName The name of the file
+	 * @param title The title of the column
+	 * @param type The type of the column
+	 */
+	public void setColumnType(String fileName, String title, ColumnType type) {
+		if (!columnTypes.containsKey(fileName))
+			columnTypes.put(fileName, new HashMap<String, ColumnType>());
+		columnTypes.get(fileName).put(title, type);
+	}
+	
+	/**
+	 * <p>Sets the object collecting the metrics of the reading of the files and of the exports (see {@link ExportMetrics}).<br>
+	 * Every {@link XMLFileWriter} created afterwards for this FileList records its metrics there too.</p>
+	 * @param metrics The metrics object, null to disable the metrics
+	 */
+	public void setMetrics(ExportMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Returns the object collecting the metrics, see {@link #setMetrics(ExportMetrics)}
+	 * @return The metrics object, null if the metrics are disabled
+	 */
+	public ExportMetrics getMetrics() {
+		return metrics;
+	}
+	
 	/**
 	 * <p>This method tries to read every file in the specified folder.<br>
-	 * If it finds any invalid file it will store its path for future use (see {@link #getInvalidFilePath()}).
+	 * If it finds any invalid file it will store its path for future use (see {@link #getInvalidFilePath()}).<br>
+	 * The files read before are discarded, along with the indexes built on them (see {@link #getServiceCalendar()}, {@link #getDepartureBoard()} and {@link #getStopIndex()}).
 	 * @return True if the whole operation is successful, false otherwise
 	 */
 	public boolean readAllFiles() {
-		for (String fileName : folder.list()) {
-			File file = new File(folder.getAbsolutePath() + "\\" + fileName);
-			if (!file.isDirectory()) {
-				XMLFileReader fr = new XMLFileReader();
-				fr.setFile(file);
-				if (!fr.readAll()) {
-					list.clear();
-					return false;
+		clearFiles();
+		ArrayList<File> files = listSourceFiles();
+		if (loadSnapshot(files))
+			return true;
+		FileListSnapshot.SourceStamp[] stamps = new FileListSnapshot.SourceStamp[files.size()];
+		for (int i = 0; i < files.size(); i++) {
+			stamps[i] = stampFile(files.get(i));
+			FileData data = readFile(files.get(i));
+			if (data == null) {
+				clearFiles();
+				return false;
+			}
+			addFile(data);
+		}
+		saveSnapshot(stamps);
+		return true;
+	}
+	
+	/**
+	 * <p>This method reads every file in the specified folder like {@link #readAllFiles()}, but spreads the files on a pool of threads.<br>
+	 * The files are stored in the same order as the sequential version.</p>
+	 * @param threads The number of files to be read at the same time
+	 * @return True if the whole operation is successful, false otherwise
+	 */
+	public boolean readAllFiles(int threads) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			return readAllFiles(executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * <p>This method reads every file in the specified folder like {@link #readAllFiles()}, but every file is read as a separate task of the given executor.<br>
+	 * The files are stored in the same order as the sequential version.<br>
+	 * As soon as a file can't be read, the reading of the other files is cancelled.</p>
+	 * @param executor The executor running the reading tasks (it won't be shut down by this method)
+	 * @return True if the whole operation is successful, false otherwise
+	 */
+	public boolean readAllFiles(ExecutorService executor) {
+		clearFiles();
+		ArrayList<File> files = listSourceFiles();
+		if (loadSnapshot(files))
+			return true;
+		
+		ExecutorCompletionService<FileData> service = new ExecutorCompletionService<FileData>(executor);
+		ArrayList<Future<FileData>> futures = new ArrayList<Future<FileData>>();
+		final FileListSnapshot.SourceStamp[] stamps = new FileListSnapshot.SourceStamp[files.size()];
+		for (int i = 0; i < files.size(); i++) {
+			final int id = i;
+			final File file = files.get(i);
+			futures.add(service.submit(new Callable<FileData>() {
+				public FileData call() {
+					stamps[id] = stampFile(file);
+					return readFile(file);
 				}
-				list.add(fr.returnData());
+			}));
+		}
+		
+		boolean successful = true;
+		try {
+			for (int i = 0; i < futures.size() && successful; i++) {
+				if (service.take().get() == null)
+					successful = false;
+			}
+		} catch (Exception e) {
+			successful = false;
+		}
+		
+		if (!successful) {
+			for (Future<FileData> future : futures) {
+				future.cancel(true);
+			}
+			clearFiles();
+			return false;
+		}
+		try {
+			for (Future<FileData> future : futures) {
+				addFile(future.get());
 			}
+		} catch (Exception e) {
+			clearFiles();
+			return false;
+		}
+		saveSnapshot(stamps);
+		return true;
+	}
+	
+	/**
+	 * Adds a file to the list, indexing it by its name (the first file with a given name is the one found by {@link #getFile(String)})
+	 * @param data The file to be added
+	 */
+	private void addFile(FileData data) {
+		list.add(data);
+		if (!filesByName.containsKey(data.getName()))
+			filesByName.put(data.getName(), data);
+	}
+	
+	private void clearFiles() {
+		list.clear();
+		filesByName.clear();
+		serviceCalendar = null;
+		departureBoard = null;
+		stopIndex = null;
+	}
+	
+	/**
+	 * Returns the files to be read in the folder, in the order they are stored
+	 * @return The files, without the folders and the snapshot file
+	 */
+	private ArrayList<File> listSourceFiles() {
+		ArrayList<File> files = new ArrayList<File>();
+		for (String fileName : folder.list()) {
+			File file = new File(folder, fileName);
+			if (!file.isDirectory() && !isSnapshotFile(file))
+				files.add(file);
 		}
+		return files;
+	}
+	
+	private boolean isSnapshotFile(File file) {
+		if (snapshotFile == null)
+			return false;
+		File absolute = file.getAbsoluteFile();
+		File snapshot = snapshotFile.getAbsoluteFile();
+		return absolute.equals(snapshot) || absolute.getPath().equals(snapshot.getPath() + ".tmp");
+	}
+	
+	/**
+	 * Loads the files from the snapshot, if it's set and still valid
+	 * @param files The files in the folder
+	 * @return True if the files have been loaded, false if they have to be read
+	 */
+	private boolean loadSnapshot(ArrayList<File> files) {
+		if (snapshotFile == null)
+			return false;
+		ArrayList<String> fileNames = new ArrayList<String>();
+		for (File file : files) {
+			fileNames.add(file.getName());
+		}
+		long start = System.nanoTime();
+		ArrayList<FileData> loaded = FileListSnapshot.read(snapshotFile, folder, fileNames);
+		if (loaded == null)
+			return false;
+		for (FileData data : loaded) {
+			applyColumnTypes(data);
+			addFile(data);
+		}
+		if (metrics != null)
+			metrics.recordSnapshotRead(loaded.size(), snapshotFile.length(), System.nanoTime() - start);
 		return true;
 	}
 	
+	/**
+	 * Takes the stamp of a file before reading it, if the snapshot is set
+	 * @param file The file to be read
+	 * @return The stamp of the file, or null if the snapshot isn't set
+	 */
+	private FileListSnapshot.SourceStamp stampFile(File file) {
+		return (snapshotFile == null) ? null : new FileListSnapshot.SourceStamp(file);
+	}
+	
+	/**
+	 * Writes the snapshot of the files just read, if it's set
+	 * Failing to write the snapshot doesn't affect the files read
+	 * @param stamps The stamps of the files, taken before reading them (see {@link #stampFile(File)})
+	 */
+	private void saveSnapshot(FileListSnapshot.SourceStamp[] stamps) {
+		if (snapshotFile == null)
+			return;
+		try {
+			FileListSnapshot.write(snapshotFile, list, Arrays.asList(stamps));
+		} catch (IOException e) {
+			// the snapshot only makes the next reading faster: without it, the files are parsed again
+		}
+	}
+	
+	/**
+	 * Converts the columns of a file read to the declared or inferred types, if any
+	 * @param data The file
+	 */
+	private void applyColumnTypes(FileData data) {
+		HashMap<String, ColumnType> declared = columnTypes.get(data.getName());
+		if (declared == null && !inferColumnTypes)
+			return;
+		data.setColumnTypes(declared == null ? new HashMap<String, ColumnType>() : declared, inferColumnTypes);
+	}
+	
+	/**
+	 * Reads a single file
+	 * @param file The file to be read
+	 * @return The FileData object containing the data of the file, or null if the file can't be read
+	 */
+	private FileData readFile(File file) {
+		long start = System.nanoTime();
+		XMLFileReader fr = new XMLFileReader();
+		fr.setFile(file);
+		fr.setMemoryMapped(memoryMapped);
+		if (!fr.readAll())
+			return null;
+		FileData data = fr.returnData();
+		applyColumnTypes(data);
+		if (metrics != null)
+			metrics.recordFileRead(data.getName(), file.length(), data.getRowCount(), System.nanoTime() - start);
+		return data;
+	}
+	
 
 	/**
 	 * <p>Returns a printable version of the data contained in the object</p>
@@ -96,12 +368,55 @@ public class FileList {
 	 * @return A FileData object containing all of the data if it exists, null otherwise
 	 */
 	public FileData getFile(String fileName) {
-		for (FileData f : list) {
-			if (fileName.equals(f.getName()))
-				return f;
-				
+		return filesByName.get(fileName);
+	}
+	
+	/**
+	 * <p>Returns the index of the days in which every service and every trip runs (see {@link ServiceCalendar}), built the first time it's needed.</p>
+	 * <p>It's built from calendar.txt, calendar_dates.txt and trips.txt, and shared by every caller until the files are read again.
+	 * @return The index, or null if neither calendar.txt nor calendar_dates.txt has been read
+	 */
+	public synchronized ServiceCalendar getServiceCalendar() {
+		if (serviceCalendar == null) {
+			FileData calendar = getFile(ServiceCalendar.CALENDAR_FILE);
+			FileData calendarDates = getFile(ServiceCalendar.CALENDAR_DATES_FILE);
+			if (calendar == null && calendarDates == null)
+				return null;
+			serviceCalendar = new ServiceCalendar(calendar, calendarDates, getFile(ServiceCalendar.TRIPS_FILE));
 		}
-		return null;
+		return serviceCalendar;
+	}
+	
+	/**
+	 * <p>Returns the index answering the departure board queries (see {@link DepartureBoard}), built the first time it's needed.</p>
+	 * <p>It's built from stop_times.txt, trips.txt, routes.txt and the service calendar ({@link #getServiceCalendar()}),
+	 * and shared by every caller until the files are read again.
+	 * @return The index, or null if stop_times.txt or trips.txt haven't been read
+	 */
+	public synchronized DepartureBoard getDepartureBoard() {
+		if (departureBoard == null) {
+			FileData stopTimes = getFile(DepartureBoard.STOP_TIMES_FILE);
+			FileData trips = getFile(ServiceCalendar.TRIPS_FILE);
+			if (stopTimes == null || trips == null)
+				return null;
+			departureBoard = new DepartureBoard(stopTimes, trips, getFile(DepartureBoard.ROUTES_FILE), getServiceCalendar());
+		}
+		return departureBoard;
+	}
+	
+	/**
+	 * <p>Returns the spatial index of the stops (see {@link StopIndex}), built the first time it's needed.</p>
+	 * <p>It's built from stops.txt, and shared by every caller until the files are read again.
+	 * @return The index, or null if stops.txt hasn't been read
+	 */
+	public synchronized StopIndex getStopIndex() {
+		if (stopIndex == null) {
+			FileData stops = getFile(StopIndex.STOPS_FILE);
+			if (stops == null)
+				return null;
+			stopIndex = new StopIndex(stops);
+		}
+		return stopIndex;
 	}
 	
 	/**
@@ -114,7 +429,7 @@ public class FileList {
 		FileData file = getFile(fileName);
 		if (file == null)
 			return false;
-		if (file.getTitles().contains(title))
+		if (file.getTitleIndex(title) != -1)
 			return true;
 		return false;
 	}
@@ -153,6 +468,17 @@ public class FileList {
 		return null;
 	}
 	
+	/**
+	 * Removes every setting: the starting file, and the row tags, valid titles and links of every file (see {@link FileData#resetSettings()})
+	 * This allows to configure another export without reading the files again
+	 */
+	public void resetSettings() {
+		startingFile = null;
+		for (FileData f : list) {
+			f.resetSettings();
+		}
+	}
+	
 	/**
 	 * Returns a list containing all of the file names saved in this object
 	 * @return An ArrayList<String> containing all of the file names
@@ -0,0 +1,252 @@
+package i42pc.traindata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <p>This class writes and reads a compact binary snapshot of all of the files read by a {@link FileList}.</p>
+ * <p>The snapshot contains, for every file, its titles and its dictionary-encoded columns,
+ * along with the length, the last modification time and a CRC32 checksum of the source file.<br>
+ * A snapshot is used only if the source files haven't changed since it was written:
+ * <ul><li>The folder must contain exactly the same files</li>
+ * <li>Every file must have the same length, and either the same modification time or the same checksum</li></ul>
+ * The checksum is computed only when the modification time differs, so that an unchanged folder is checked without reading it.
+ * Because of that, a file edited in place without changing its length nor its modification time (for example, restoring the time with {@code touch -r})
+ * isn't detected: the old data is loaded from the snapshot. Delete the snapshot to read such a file again.
+ */
+class FileListSnapshot {
+	private static final int MAGIC = 0x54445331; // "TDS1"
+	private static final int VERSION = 1;
+
+	/**
+	 * The length, the last modification time and the checksum of a source file.<br>
+	 * They must be taken before the file is read, so that a file changed while it's being read never matches the snapshot.
+	 */
+	static class SourceStamp {
+		private final long length;
+		private final long lastModified;
+		private final long checksum;
+
+		/**
+		 * Takes the stamp of a source file
+		 * @param source The source file, not read yet
+		 */
+		public SourceStamp(File source) {
+			length = source.length();
+			lastModified = source.lastModified();
+			checksum = checksum(source);
+		}
+	}
+
+	/**
+	 * Writes the snapshot of some files
+	 * The snapshot is first written to a temporary file, which then replaces the old snapshot
+	 * @param snapshot The snapshot file
+	 * @param files The data of the files
+	 * @param stamps The stamps of the source files, taken before reading them, in the same order as files
+	 * @throws IOException If the snapshot can't be written
+	 */
+	public static void write(File snapshot, List<FileData> files, List<SourceStamp> stamps) throws IOException {
+		File parent = snapshot.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("Can't create the folder " + parent);
+		File temporary = new File(snapshot.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(files.size());
+			for (int i = 0; i < files.size(); i++) {
+				SourceStamp stamp = stamps.get(i);
+				writeString(out, files.get(i).getName());
+				out.writeLong(stamp.length);
+				out.writeLong(stamp.lastModified);
+				out.writeLong(stamp.checksum);
+			}
+			for (FileData file : files) {
+				writeFile(out, file);
+			}
+		} finally {
+			out.close();
+		}
+		if (snapshot.exists() && !snapshot.delete())
+			throw new IOException("Can't replace the snapshot " + snapshot);
+		if (!temporary.renameTo(snapshot))
+			throw new IOException("Can't write the snapshot " + snapshot);
+	}
+
+	/**
+	 * Reads a snapshot, if it's still valid for the files in a folder
+	 * @param snapshot The snapshot file
+	 * @param folder The folder containing the source files
+	 * @param fileNames The names of the files currently in the folder, in the order they should be returned
+	 * @return The data of the files, in the order of fileNames, or null if the snapshot doesn't exist, can't be read or isn't valid anymore
+	 */
+	public static ArrayList<FileData> read(File snapshot, File folder, List<String> fileNames) {
+		if (!snapshot.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), 1 << 16));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			int count = in.readInt();
+			if (count != fileNames.size())
+				return null;
+			for (int i = 0; i < count; i++) {
+				File source = new File(folder, readString(in));
+				long length = in.readLong();
+				long lastModified = in.readLong();
+				long checksum = in.readLong();
+				if (!fileNames.contains(source.getName()) || !source.isFile() || source.length() != length)
+					return null;
+				if (source.lastModified() != lastModified && checksum(source) != checksum)
+					return null;
+			}
+			HashMap<String, FileData> files = new HashMap<String, FileData>();
+			for (int i = 0; i < count; i++) {
+				FileData file = readFile(in);
+				files.put(file.getName(), file);
+			}
+			ArrayList<FileData> out = new ArrayList<FileData>();
+			for (String fileName : fileNames) {
+				out.add(files.get(fileName));
+			}
+			return out;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				// the snapshot has already been read
+			}
+		}
+	}
+
+	private static void writeFile(DataOutputStream out, FileData file) throws IOException {
+		List<String> titles = file.getTitlesView();
+		writeString(out, file.getName());
+		out.writeInt(titles.size());
+		for (String title : titles) {
+			writeString(out, title);
+		}
+		out.writeInt(file.getRowCount());
+		int columnCount = (file.getRowCount() == 0) ? 0 : titles.size();
+		out.writeInt(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			Column column = file.getColumn(i);
+			int dictionarySize = column.getDictionarySize();
+			out.writeInt(dictionarySize);
+			for (int code = 0; code < dictionarySize; code++) {
+				writeString(out, column.getValue(code));
+			}
+			out.writeInt(column.size());
+			for (int row = 0; row < column.size(); row++) {
+				writeCode(out, column.getCode(row), dictionarySize);
+			}
+		}
+	}
+
+	private static FileData readFile(DataInputStream in) throws IOException {
+		String name = readString(in);
+		int titleCount = in.readInt();
+		ArrayList<String> titles = new ArrayList<String>(titleCount);
+		for (int i = 0; i < titleCount; i++) {
+			titles.add(readString(in));
+		}
+		int rowCount = in.readInt();
+		int columnCount = in.readInt();
+		ArrayList<Column> columns = new ArrayList<Column>(columnCount);
+		for (int i = 0; i < columnCount; i++) {
+			int dictionarySize = in.readInt();
+			ArrayList<String> dictionary = new ArrayList<String>(dictionarySize);
+			for (int code = 0; code < dictionarySize; code++) {
+				dictionary.add(readString(in));
+			}
+			int size = in.readInt();
+			int[] codes = new int[size];
+			for (int row = 0; row < size; row++) {
+				codes[row] = readCode(in, dictionarySize);
+			}
+			columns.add(new DictionaryColumn(dictionary, codes, size));
+		}
+		return new FileData(name, titles, columns, rowCount);
+	}
+
+	/**
+	 * Writes a dictionary code with the smallest number of bytes allowed by the size of the dictionary
+	 */
+	private static void writeCode(DataOutputStream out, int code, int dictionarySize) throws IOException {
+		if (dictionarySize <= 1 << 8)
+			out.writeByte(code);
+		else if (dictionarySize <= 1 << 16)
+			out.writeShort(code);
+		else
+			out.writeInt(code);
+	}
+
+	private static int readCode(DataInputStream in, int dictionarySize) throws IOException {
+		if (dictionarySize <= 1 << 8)
+			return in.readUnsignedByte();
+		if (dictionarySize <= 1 << 16)
+			return in.readUnsignedShort();
+		return in.readInt();
+	}
+
+	/**
+	 * Writes a String of any length (unlike {@link DataOutputStream#writeUTF(String)})
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Computes the CRC32 checksum of a file
+	 * @param file The file
+	 * @return The checksum, or -1 if the file can't be read
+	 */
+	private static long checksum(File file) {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, count);
+			}
+			return crc.getValue();
+		} catch (IOException e) {
+			return -1;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				// the checksum has already been computed
+			}
+		}
+	}
+}
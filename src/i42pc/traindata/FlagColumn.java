@@ -0,0 +1,97 @@
+package i42pc.traindata;
+
+import java.util.BitSet;
+
+/**
+ * <p>This class represents a column containing only the values {@code 0} and {@code 1}, keeping a single bit per cell (see {@link ColumnType#FLAG}).</p>
+ * <p>The code of every cell is its value: 0 for {@code 0} and 1 for {@code 1}.
+ */
+class FlagColumn extends Column {
+	private static final String ZERO = "0";
+	private static final String ONE = "1";
+
+	private BitSet bits;
+	private int size;
+	private boolean hasZero;
+	private boolean hasOne;
+
+	private FlagColumn(BitSet bits, int size) {
+		this.bits = bits;
+		this.size = size;
+		int ones = bits.cardinality();
+		this.hasZero = ones < size;
+		this.hasOne = ones > 0;
+	}
+
+	/**
+	 * Converts a column to a flag one
+	 * @param column The column to be converted
+	 * @return The new column, or null if the column contains values other than {@code 0} and {@code 1}
+	 */
+	public static FlagColumn convert(Column column) {
+		int[] flags = new int[column.getDictionarySize()];
+		for (int code = 0; code < flags.length; code++) {
+			String value = column.getValue(code);
+			if (ZERO.equals(value))
+				flags[code] = 0;
+			else if (ONE.equals(value))
+				flags[code] = 1;
+			else
+				return null;
+		}
+		BitSet bits = new BitSet(column.size());
+		for (int row = 0; row < column.size(); row++) {
+			if (flags[column.getCode(row)] == 1)
+				bits.set(row);
+		}
+		return new FlagColumn(bits, column.size());
+	}
+
+	public void add(String value) {
+		throw new UnsupportedOperationException("A typed column can't be changed");
+	}
+
+	public String get(int row) {
+		return bits.get(row) ? ONE : ZERO;
+	}
+
+	public int getCode(int row) {
+		return bits.get(row) ? 1 : 0;
+	}
+
+	public String getValue(int code) {
+		return (code == 1) ? ONE : ZERO;
+	}
+
+	public int findCode(String value) {
+		if (ZERO.equals(value))
+			return hasZero ? 0 : -1;
+		if (ONE.equals(value))
+			return hasOne ? 1 : -1;
+		return -1;
+	}
+
+	public int getDictionarySize() {
+		return 2;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public ColumnType getType() {
+		return ColumnType.FLAG;
+	}
+
+	public int getInt(int row) {
+		return bits.get(row) ? 1 : 0;
+	}
+
+	public double getDoubleValue(int code) {
+		return code;
+	}
+
+	public void trim() {
+		// the bits are already allocated for the whole column
+	}
+}
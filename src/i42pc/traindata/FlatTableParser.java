@@ -0,0 +1,404 @@
+package i42pc.traindata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>This class implements a fast reader for the xml files read by {@link XMLFileReader}, scanning their bytes directly.</p>
+ * <p>It only accepts documents with exactly this shape:<br>
+ * <ul><li>An optional xml declaration, with the utf-8 encoding</li>
+ * <li>A root tag named {@code table}, containing only tags named {@code row}</li>
+ * <li>Rows containing only title tags, each one containing only text</li></ul>
+ * <p>Comments, processing instructions, CDATA sections and anything else make {@link #parse()} fail,
+ * so that the document can be read with the generic StAX reader instead.</p>
+ * <p>Once the titles are locked, every title tag is checked against the bytes of the title expected in its position,
+ * and its value is stored straight into the column.</p>
+ * <p>If the document is read from a {@link MappedFile}, the values are stored as slices of the mapped file
+ * (see {@link FileData#setMappedFile(MappedFile)}), so that no String is created for them.
+ */
+class FlatTableParser {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] ROOT_TAG = "table".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ROW_TAG = "row".getBytes(StandardCharsets.UTF_8);
+
+	private InputStream in;
+	private MappedFile mappedFile;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private long bufferStart = 0;
+	private int position = 0;
+	private int limit = 0;
+
+	private FileData fileData;
+	private byte[][] titleBytes = null;
+
+	private byte[] name = new byte[64];
+	private int nameLength = 0;
+	private boolean selfClosing = false;
+	private byte[] value = new byte[256];
+	private int valueLength = 0;
+
+	/**
+	 * Constructor for this object
+	 * @param in The stream containing the document
+	 * @param fileData The object where all of the data will be stored
+	 */
+	public FlatTableParser(InputStream in, FileData fileData) {
+		this(in, fileData, null);
+	}
+	
+	/**
+	 * Constructor for this object, reading a memory-mapped file
+	 * @param mappedFile The mapped file containing the document
+	 * @param fileData The object where all of the data will be stored: its mapped file must have been set to mappedFile
+	 */
+	public FlatTableParser(MappedFile mappedFile, FileData fileData) {
+		this(mappedFile.newInputStream(), fileData, mappedFile);
+	}
+	
+	private FlatTableParser(InputStream in, FileData fileData, MappedFile mappedFile) {
+		this.in = in;
+		this.fileData = fileData;
+		this.mappedFile = mappedFile;
+	}
+
+	/**
+	 * Reads the whole document, storing its data
+	 * @return True if the document has been read and all of its data stored, false if the document isn't supported or its data isn't valid
+	 * @throws IOException If the stream can't be read
+	 */
+	public boolean parse() throws IOException {
+		skipByteOrderMark();
+		skipWhitespace();
+		if (peek() == '<' && peek(1) == '?' && !readDeclaration())
+			return false;
+		skipWhitespace();
+		if (read() != '<' || !readStartTag() || selfClosing || !nameEquals(ROOT_TAG))
+			return false;
+
+		while (true) {
+			if (Thread.currentThread().isInterrupted())
+				return false;
+			skipWhitespace();
+			if (read() != '<')
+				return false;
+			if (peek() == '/') {
+				read();
+				if (!readEndTag() || !nameEquals(ROOT_TAG))
+					return false;
+				fileData.setFinished();
+				return true;
+			}
+			if (!readStartTag() || !nameEquals(ROW_TAG) || !fileData.addNewLine())
+				return false;
+			if (!selfClosing && !readRow())
+				return false;
+			if (!fileData.hasTitlesLocked())
+				lockTitles();
+		}
+	}
+
+	/**
+	 * Reads the content of a row, up to its end tag included
+	 * @return True if successful, false otherwise
+	 */
+	private boolean readRow() throws IOException {
+		int column = 0;
+		while (true) {
+			skipWhitespace();
+			if (read() != '<')
+				return false;
+			if (peek() == '/') {
+				read();
+				return readEndTag() && nameEquals(ROW_TAG);
+			}
+			if (!readStartTag() || nameEquals(ROW_TAG) || nameEquals(ROOT_TAG))
+				return false;
+
+			// recognizes the title: against the expected one if the titles are locked, by name otherwise
+			int index = column;
+			byte[] startName;
+			if (titleBytes != null && column < titleBytes.length && nameEquals(titleBytes[column])) {
+				startName = titleBytes[column];
+			}
+			else {
+				startName = Arrays.copyOf(name, nameLength);
+				String title = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+				if (!fileData.hasTitlesLocked())
+					fileData.addTitle(title);
+				index = fileData.getTitleIndex(title);
+			}
+
+			boolean added;
+			if (selfClosing) {
+				added = fileData.addValue(index, new String());
+			}
+			else {
+				long textStart = bufferStart + position;
+				if (!readText())
+					return false;
+				if (!readEndTag() || !nameEquals(startName))
+					return false;
+				if (mappedFile != null && isPlainValue()) {
+					int start = trimmedStart();
+					added = fileData.addSlice(index, textStart + start, trimmedEnd(start) - start);
+				}
+				else {
+					String cell = decodeValue();
+					if (cell == null)
+						return false;
+					added = fileData.addValue(index, cell);
+				}
+			}
+			if (!added)
+				return false;
+			column++;
+		}
+	}
+
+	/**
+	 * Reads the xml declaration, checking that the encoding is utf-8
+	 * @return True if the declaration is supported, false otherwise
+	 */
+	private boolean readDeclaration() throws IOException {
+		StringBuilder declaration = new StringBuilder();
+		int b;
+		while ((b = read()) != -1) {
+			declaration.append((char) b);
+			if (b == '>' && declaration.length() > 1 && declaration.charAt(declaration.length() - 2) == '?')
+				break;
+		}
+		if (b == -1 || !declaration.toString().startsWith("<?xml"))
+			return false;
+		String lower = declaration.toString().toLowerCase();
+		int encoding = lower.indexOf("encoding");
+		return encoding == -1 || lower.indexOf("utf-8", encoding) != -1;
+	}
+
+	/**
+	 * Reads a start tag, after its '<': its name is stored in {@link #name}, its attributes are skipped
+	 * @return True if successful, false otherwise
+	 */
+	private boolean readStartTag() throws IOException {
+		if (!readName())
+			return false;
+		selfClosing = false;
+		int b;
+		while ((b = read()) != '>') {
+			if (b == -1)
+				return false;
+			if (b == '/') {
+				if (read() != '>')
+					return false;
+				selfClosing = true;
+				return true;
+			}
+			if (b == '"' || b == '\'') {
+				int quote = b;
+				while ((b = read()) != quote) {
+					if (b == -1 || b == '<')
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads an end tag, after its '</': its name is stored in {@link #name}
+	 * @return True if successful, false otherwise
+	 */
+	private boolean readEndTag() throws IOException {
+		if (!readName())
+			return false;
+		skipWhitespace();
+		return read() == '>';
+	}
+
+	/**
+	 * Reads the name of a tag into {@link #name}
+	 * @return True if the name isn't empty, false otherwise
+	 */
+	private boolean readName() throws IOException {
+		nameLength = 0;
+		int b;
+		while ((b = peek()) != -1 && b != '>' && b != '/' && !isWhitespace(b)) {
+			if (b == '<' || b == '!' || b == '?')
+				return false;
+			if (nameLength == name.length)
+				name = Arrays.copyOf(name, nameLength * 2);
+			name[nameLength++] = (byte) read();
+		}
+		return nameLength > 0;
+	}
+
+	/**
+	 * Reads the text of a title tag into {@link #value}, up to the '</' of the end tag included
+	 * @return True if the tag contains only text, false otherwise
+	 */
+	private boolean readText() throws IOException {
+		valueLength = 0;
+		int b;
+		while ((b = read()) != '<') {
+			if (b == -1)
+				return false;
+			if (valueLength == value.length)
+				value = Arrays.copyOf(value, valueLength * 2);
+			value[valueLength++] = (byte) b;
+		}
+		return read() == '/';
+	}
+
+	/**
+	 * Turns the bytes in {@link #value} into the value to be stored, like the StAX reader does:
+	 * entities are resolved, line breaks normalized and leading and trailing whitespace removed
+	 * @return The value, or null if it contains an unknown entity
+	 */
+	private String decodeValue() {
+		if (isPlainValue()) {
+			int start = trimmedStart();
+			return new String(value, start, trimmedEnd(start) - start, StandardCharsets.UTF_8);
+		}
+		String raw = new String(value, 0, valueLength, StandardCharsets.UTF_8).replace("\r\n", "\n").replace('\r', '\n');
+		StringBuilder out = new StringBuilder(raw.length());
+		int i = 0;
+		while (i < raw.length()) {
+			char c = raw.charAt(i);
+			if (c != '&') {
+				out.append(c);
+				i++;
+				continue;
+			}
+			int end = raw.indexOf(';', i);
+			if (end == -1)
+				return null;
+			String entity = raw.substring(i + 1, end);
+			if (entity.equals("amp"))
+				out.append('&');
+			else if (entity.equals("lt"))
+				out.append('<');
+			else if (entity.equals("gt"))
+				out.append('>');
+			else if (entity.equals("quot"))
+				out.append('"');
+			else if (entity.equals("apos"))
+				out.append('\'');
+			else if (entity.startsWith("#")) {
+				try {
+					int codePoint = entity.startsWith("#x") ? Integer.parseInt(entity.substring(2), 16) : Integer.parseInt(entity.substring(1));
+					out.appendCodePoint(codePoint);
+				} catch (IllegalArgumentException e) {
+					return null;
+				}
+			}
+			else
+				return null;
+			i = end + 1;
+		}
+		return out.toString().trim();
+	}
+
+	/**
+	 * Checks if the bytes in {@link #value} can be stored as they are, apart from the leading and trailing whitespace
+	 * @return True if the value contains no entities and no line breaks to be normalized, false otherwise
+	 */
+	private boolean isPlainValue() {
+		for (int i = 0; i < valueLength; i++) {
+			if (value[i] == '&' || value[i] == '\r')
+				return false;
+		}
+		return true;
+	}
+
+	private int trimmedStart() {
+		int start = 0;
+		while (start < valueLength && (value[start] & 0xff) <= ' ')
+			start++;
+		return start;
+	}
+
+	private int trimmedEnd(int start) {
+		int end = valueLength;
+		while (end > start && (value[end - 1] & 0xff) <= ' ')
+			end--;
+		return end;
+	}
+
+	/**
+	 * Stores the bytes of the titles, to recognize the title tags of the next rows
+	 */
+	private void lockTitles() {
+		fileData.lockTitles();
+		List<String> titles = fileData.getTitlesView();
+		titleBytes = new byte[titles.size()][];
+		for (int i = 0; i < titleBytes.length; i++) {
+			titleBytes[i] = titles.get(i).getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	private boolean nameEquals(byte[] other) {
+		if (other.length != nameLength)
+			return false;
+		for (int i = 0; i < nameLength; i++) {
+			if (name[i] != other[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void skipByteOrderMark() throws IOException {
+		if (peek() == 0xef && peek(1) == 0xbb && peek(2) == 0xbf) {
+			position += 3;
+		}
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (isWhitespace(peek()))
+			position++;
+	}
+
+	private static boolean isWhitespace(int b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	private int read() throws IOException {
+		if (position == limit && !fill(1))
+			return -1;
+		return buffer[position++] & 0xff;
+	}
+
+	private int peek() throws IOException {
+		if (position == limit && !fill(1))
+			return -1;
+		return buffer[position] & 0xff;
+	}
+
+	private int peek(int ahead) throws IOException {
+		if (position + ahead >= limit && !fill(ahead + 1))
+			return -1;
+		return buffer[position + ahead] & 0xff;
+	}
+
+	/**
+	 * Reads more bytes from the stream, keeping the ones not read yet
+	 * @param needed The number of bytes needed after the current position
+	 * @return True if enough bytes are available, false if the stream ended first
+	 */
+	private boolean fill(int needed) throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			bufferStart += position;
+			limit -= position;
+			position = 0;
+		}
+		while (limit < needed) {
+			int count = in.read(buffer, limit, buffer.length - limit);
+			if (count == -1)
+				return false;
+			limit += count;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,153 @@
+package i42pc.traindata;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * <p>This class stores the rendered bytes of linked subtrees, so that {@link XMLFileWriter} can write them again instead of rendering them.</p>
+ * <p>A subtree is identified by the render plan of the linked file (the destination file along with the row name),
+ * the searched title and the searched value.<br>
+ * The cache holds a bounded number of bytes: when full, the least recently used subtrees are evicted.
+ */
+class FragmentCache {
+	private long maxBytes;
+	private long bytes = 0;
+	private LinkedHashMap<Key, Fragment> fragments = new LinkedHashMap<Key, Fragment>(16, 0.75f, true);
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Constructor for this object
+	 * @param maxBytes The maximum number of bytes of the subtrees to be stored
+	 */
+	public FragmentCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns a stored subtree, counting the hit or the miss
+	 * @param plan The render plan of the linked file
+	 * @param title The searched title
+	 * @param value The searched value
+	 * @return The subtree, null if it isn't stored
+	 */
+	public Fragment get(RenderPlan plan, String title, String value) {
+		Fragment fragment = fragments.get(new Key(plan, title, value));
+		if (fragment == null)
+			misses++;
+		else
+			hits++;
+		return fragment;
+	}
+
+	/**
+	 * Stores the bytes of a subtree, evicting the least recently used ones if the cache becomes too big
+	 * A subtree bigger than the whole cache isn't stored
+	 * @param plan The render plan of the linked file
+	 * @param title The searched title
+	 * @param value The searched value
+	 * @param bytes The bytes of the subtree
+	 * @param elements The number of elements in the subtree
+	 */
+	public void put(RenderPlan plan, String title, String value, byte[] bytes, long elements) {
+		if (bytes.length > maxBytes)
+			return;
+		Fragment previous = fragments.put(new Key(plan, title, value), new Fragment(bytes, elements));
+		this.bytes += bytes.length - ((previous == null) ? 0 : previous.getBytes().length);
+		Iterator<Fragment> eldest = fragments.values().iterator();
+		while (this.bytes > maxBytes && eldest.hasNext()) {
+			this.bytes -= eldest.next().getBytes().length;
+			eldest.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of subtrees found in the cache
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of subtrees not found in the cache
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Adds the hits and the misses of another cache to the ones of this cache
+	 * @param other The other cache
+	 */
+	public void addCounts(FragmentCache other) {
+		hits += other.hits;
+		misses += other.misses;
+	}
+
+	/**
+	 * Returns the number of subtrees stored
+	 * @return The number of entries
+	 */
+	public int size() {
+		return fragments.size();
+	}
+
+	/**
+	 * Returns the number of bytes of the subtrees stored
+	 * @return The number of bytes
+	 */
+	public long getByteSize() {
+		return bytes;
+	}
+
+	/**
+	 * Internal class to represent a stored subtree: its bytes, along with the number of elements they contain
+	 */
+	static class Fragment {
+		private byte[] bytes;
+		private long elements;
+
+		public Fragment(byte[] bytes, long elements) {
+			this.bytes = bytes;
+			this.elements = elements;
+		}
+
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		public long getElementCount() {
+			return elements;
+		}
+	}
+
+	/**
+	 * Internal class to represent the key of a subtree
+	 */
+	private static class Key {
+		private RenderPlan plan;
+		private String title;
+		private String value;
+		private int hash;
+
+		public Key(RenderPlan plan, String title, String value) {
+			this.plan = plan;
+			this.title = title;
+			this.value = value;
+			this.hash = (System.identityHashCode(plan) * 31 + title.hashCode()) * 31 + value.hashCode();
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Key))
+				return false;
+			Key key = (Key) other;
+			return plan == key.plan && title.equals(key.title) && value.equals(key.value);
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>This class is an immutable snapshot of the data of a finished {@link FileData}, returned by {@link FileData#setFinished()}.</p>
+ * <p>It holds only the table (the name, the titles and the columns), not the settings of the file (row tag, valid titles, links),
+ * and it has no iteration state: the rows are read through {@link RowView} cursors, each one owned by a single thread.<br>
+ * All of its methods can be called by many threads at the same time: the hash indexes used by {@link #getRowIds(String, String)}
+ * are built at most once per title and then shared.</p>
+ */
+public final class FrozenFileData implements RowSource {
+	private final String name;
+	private final List<String> titles;
+	private final HashMap<String, Integer> titleIndexes;
+	private final Column[] columns;
+	private final int rowCount;
+	private final ConcurrentHashMap<String, int[][]> indexes = new ConcurrentHashMap<String, int[][]>();
+
+	/**
+	 * Constructor for this object: the columns must be already trimmed and never changed afterwards
+	 * @param name The name of the file
+	 * @param titles The titles of the columns
+	 * @param columns The columns, in the same order of the titles
+	 * @param rowCount The number of rows
+	 */
+	FrozenFileData(String name, List<String> titles, List<Column> columns, int rowCount) {
+		this.name = name;
+		this.titles = Collections.unmodifiableList(new ArrayList<String>(titles));
+		this.titleIndexes = new HashMap<String, Integer>(titles.size() * 2);
+		for (int i = 0; i < titles.size(); i++) {
+			if (!titleIndexes.containsKey(titles.get(i)))
+				titleIndexes.put(titles.get(i), i);
+		}
+		this.columns = columns.toArray(new Column[columns.size()]);
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * Returns the name of the file
+	 * @return The name of the file
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the titles of the columns
+	 * @return An unmodifiable List<String> containing all of the titles
+	 */
+	public List<String> getTitles() {
+		return titles;
+	}
+
+	/**
+	 * Returns the position of a title in the titles list, in constant time
+	 * @param title The title
+	 * @return The position of the title, or -1 if it doesn't exist
+	 */
+	public int getTitleIndex(String title) {
+		Integer index = titleIndexes.get(title);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Returns the number of rows in the table
+	 * @return The number of rows
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Returns a given row of the table
+	 * @param rowId The position of the row in the table
+	 * @return A fresh ArrayList<String> containing the row
+	 */
+	public ArrayList<String> getRow(int rowId) {
+		return newRowView().moveTo(rowId).toList();
+	}
+
+	/**
+	 * Returns a new cursor on the rows of the table: see {@link RowView}
+	 * @return A new RowView, not pointing to any row yet
+	 */
+	public RowView newRowView() {
+		return new RowView(this);
+	}
+
+	public String getValue(int rowId, int column) {
+		return columns[column].get(rowId);
+	}
+
+	public int getCellCount(int rowId) {
+		if (rowId < rowCount - 1)
+			return columns.length;
+		int count = 0;
+		for (Column column : columns) {
+			if (rowId < column.size())
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a column of the table
+	 * @param column The position of the column in the titles list
+	 * @return The column object
+	 */
+	Column getColumn(int column) {
+		return columns[column];
+	}
+
+	/**
+	 * Returns the number of columns filled (it can be lower than the number of titles if the file has no rows)
+	 * @return The number of columns
+	 */
+	int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * Returns the hash index of a title, only if it has already been built (see {@link #prepareIndex(String)})
+	 * @param searchTitle The title of the indexed column
+	 * @return The index (the row ids for the code c are in the array at position c), or null if it hasn't been built
+	 */
+	int[][] getIndex(String searchTitle) {
+		return indexes.get(searchTitle);
+	}
+
+	/**
+	 * <p>Returns the rows matching a predicate, without copying them (see {@link RowPredicate})</p>
+	 * @param predicate The predicate
+	 * @return The selection of the matching rows, or null if a title of the predicate doesn't exist
+	 */
+	public RowSelection select(RowPredicate predicate) {
+		BitSet rows = predicate.evaluate(this);
+		return (rows == null) ? null : new RowSelection(rows, rowCount);
+	}
+
+	/**
+	 * Returns the type of the values of a column (see {@link FileData#setColumnTypes(java.util.Map, boolean)})
+	 * @param column The position of the column in the titles list
+	 * @return The type of the column
+	 */
+	public ColumnType getColumnType(int column) {
+		return columns[column].getType();
+	}
+
+	/**
+	 * Returns the value of a cell of an integer, time or flag column, without parsing it (see {@link Column#getInt(int)})
+	 * @param rowId The position of the row in the table
+	 * @param column The position of the column in the titles list
+	 * @return The value of the cell
+	 * @throws UnsupportedOperationException If the column isn't an integer, time or flag one
+	 */
+	public int getInt(int rowId, int column) {
+		return columns[column].getInt(rowId);
+	}
+
+	/**
+	 * Returns the value of a cell of a numeric column, without parsing it (see {@link Column#getDouble(int)})
+	 * @param rowId The position of the row in the table
+	 * @param column The position of the column in the titles list
+	 * @return The value of the cell
+	 * @throws UnsupportedOperationException If the column is a text one
+	 */
+	public double getDouble(int rowId, int column) {
+		return columns[column].getDouble(rowId);
+	}
+
+	/**
+	 * <p>Returns the ids of the rows whose value in the column marked by searchTitle is equal to searchValue.</p>
+	 * <p>The first call for a title builds a hash index (value -> row ids) on that column, shared by all of the following calls.</p>
+	 * @param searchValue The value for every row to be checked against
+	 * @param searchTitle The title of the column of data to be checked
+	 * @return The ids of the matching rows, in ascending order (an empty array if no row matches), or null if the title doesn't exist.
+	 * The array must not be modified
+	 */
+	public int[] getRowIds(String searchValue, String searchTitle) {
+		int titleId = getTitleIndex(searchTitle);
+		if (titleId == -1) return null;
+		if (titleId >= columns.length) return new int[0];
+		int code = columns[titleId].findCode(searchValue);
+		if (code == -1) return new int[0];
+		prepareIndex(searchTitle);
+		return indexes.get(searchTitle)[code];
+	}
+
+	/**
+	 * <p>Checks if at least one row contains a given value in the column marked by searchTitle.</p>
+	 * @param searchValue The value to be searched
+	 * @param searchTitle The title of the column of data to be checked
+	 * @return True if the value exists in such column, false otherwise or if the title doesn't exist
+	 */
+	public boolean containsValue(String searchValue, String searchTitle) {
+		int titleId = getTitleIndex(searchTitle);
+		if (titleId == -1 || titleId >= columns.length) return false;
+		return columns[titleId].findCode(searchValue) != -1;
+	}
+
+	/**
+	 * Builds the hash index used by {@link #getRowIds(String, String)} for a title, if it doesn't exist yet
+	 * If two threads build the same index at the same time, only one of the two is kept
+	 * @param searchTitle The title of the column to be indexed
+	 */
+	void prepareIndex(String searchTitle) {
+		int titleId = getTitleIndex(searchTitle);
+		if (titleId == -1 || titleId >= columns.length || indexes.containsKey(searchTitle))
+			return;
+		indexes.putIfAbsent(searchTitle, buildIndex(columns[titleId]));
+	}
+
+	/**
+	 * Builds an index mapping every dictionary code of a column to the ids of the rows containing it
+	 * @param column The column to be indexed
+	 * @return The new index: the row ids for the code c are in the array at position c
+	 */
+	private static int[][] buildIndex(Column column) {
+		int[] counts = new int[column.getDictionarySize()];
+		for (int i = 0; i < column.size(); i++) {
+			counts[column.getCode(i)]++;
+		}
+		int[][] index = new int[counts.length][];
+		for (int code = 0; code < counts.length; code++) {
+			index[code] = new int[counts[code]];
+			counts[code] = 0;
+		}
+		for (int i = 0; i < column.size(); i++) {
+			int code = column.getCode(i);
+			index[code][counts[code]++] = i;
+		}
+		return index;
+	}
+}
@@ -0,0 +1,163 @@
+package i42pc.traindata;
+
+import java.util.Arrays;
+
+/**
+ * <p>This class represents a column of integers or times (see {@link ColumnType#INTEGER} and {@link ColumnType#TIME}).</p>
+ * <p>The distinct values are kept sorted as ints, and every cell keeps its code: the position of its value among them,
+ * so the codes follow the order of the values.<br>
+ * The text of a cell is formatted again every time it's read.
+ */
+class IntColumn extends Column {
+	private static final long INVALID = Long.MIN_VALUE;
+
+	private boolean time;
+	private int[] codes;
+	private int[] distinct;
+
+	private IntColumn(boolean time, int[] codes, int[] distinct) {
+		this.time = time;
+		this.codes = codes;
+		this.distinct = distinct;
+	}
+
+	/**
+	 * Converts a column to an integer or time one
+	 * @param column The column to be converted
+	 * @param time True for times ({@code HH:MM:SS}), false for integers
+	 * @return The new column, or null if some values of the column can't be kept exactly
+	 */
+	public static IntColumn convert(Column column, boolean time) {
+		int[] parsed = new int[column.getDictionarySize()];
+		for (int code = 0; code < parsed.length; code++) {
+			String value = column.getValue(code);
+			long number = parse(value, time);
+			if (number == INVALID || !format((int) number, time).equals(value))
+				return null;
+			parsed[code] = (int) number;
+		}
+		int[] distinct = Arrays.copyOf(parsed, parsed.length);
+		Arrays.sort(distinct);
+		int[] sortedCodes = new int[parsed.length];
+		for (int code = 0; code < parsed.length; code++) {
+			sortedCodes[code] = Arrays.binarySearch(distinct, parsed[code]);
+		}
+		int[] codes = new int[column.size()];
+		for (int row = 0; row < codes.length; row++) {
+			codes[row] = sortedCodes[column.getCode(row)];
+		}
+		return new IntColumn(time, codes, distinct);
+	}
+
+	/**
+	 * Parses a value written in the canonical form of the column
+	 * @param value The value to be parsed
+	 * @param time True for a time, false for an integer
+	 * @return The number (the seconds from midnight for a time), or {@link #INVALID} if the value isn't in the canonical form
+	 */
+	private static long parse(String value, boolean time) {
+		return time ? parseTime(value) : parseInteger(value);
+	}
+
+	private static long parseInteger(String value) {
+		int length = value.length();
+		int start = (length > 0 && value.charAt(0) == '-') ? 1 : 0;
+		if (length == start || length - start > 10)
+			return INVALID;
+		if (value.charAt(start) == '0' && length - start > 1 || start == 1 && value.charAt(1) == '0')
+			return INVALID; // leading zeros and -0
+		long number = 0;
+		for (int i = start; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				return INVALID;
+			number = number * 10 + (c - '0');
+		}
+		number = (start == 1) ? -number : number;
+		return (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) ? INVALID : number;
+	}
+
+	private static long parseTime(String value) {
+		if (value.length() != 8 || value.charAt(2) != ':' || value.charAt(5) != ':')
+			return INVALID;
+		int hours = parseDigits(value, 0);
+		int minutes = parseDigits(value, 3);
+		int seconds = parseDigits(value, 6);
+		if (hours < 0 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59)
+			return INVALID;
+		return hours * 3600 + minutes * 60 + seconds;
+	}
+
+	private static int parseDigits(String value, int position) {
+		char first = value.charAt(position);
+		char second = value.charAt(position + 1);
+		if (first < '0' || first > '9' || second < '0' || second > '9')
+			return -1;
+		return (first - '0') * 10 + (second - '0');
+	}
+
+	private static String format(int number, boolean time) {
+		if (!time)
+			return Integer.toString(number);
+		char[] out = new char[8];
+		writeDigits(out, 0, number / 3600);
+		out[2] = ':';
+		writeDigits(out, 3, number / 60 % 60);
+		out[5] = ':';
+		writeDigits(out, 6, number % 60);
+		return new String(out);
+	}
+
+	private static void writeDigits(char[] out, int position, int number) {
+		out[position] = (char) ('0' + number / 10);
+		out[position + 1] = (char) ('0' + number % 10);
+	}
+
+	public void add(String value) {
+		throw new UnsupportedOperationException("A typed column can't be changed");
+	}
+
+	public String get(int row) {
+		return format(distinct[codes[row]], time);
+	}
+
+	public int getCode(int row) {
+		return codes[row];
+	}
+
+	public String getValue(int code) {
+		return format(distinct[code], time);
+	}
+
+	public int findCode(String value) {
+		long number = parse(value, time);
+		if (number == INVALID)
+			return -1;
+		int code = Arrays.binarySearch(distinct, (int) number);
+		return (code < 0) ? -1 : code;
+	}
+
+	public int getDictionarySize() {
+		return distinct.length;
+	}
+
+	public int size() {
+		return codes.length;
+	}
+
+	public ColumnType getType() {
+		return time ? ColumnType.TIME : ColumnType.INTEGER;
+	}
+
+	public int getInt(int row) {
+		return distinct[codes[row]];
+	}
+
+	public double getDoubleValue(int code) {
+		return distinct[code];
+	}
+
+	public void trim() {
+		// the codes are already allocated for the whole column
+	}
+}
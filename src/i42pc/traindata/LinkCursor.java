@@ -0,0 +1,93 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * <p>This class is a cursor on the links starting from a {@link FileData}, replacing {@link FileData#startLinkOut()},
+ * {@link FileData#nextLink()} and {@link FileData#hasLinkFrom(String)}.</p>
+ * <p>It works on a copy of the links taken when it's created, so that many cursors can be used at the same time,
+ * even by different threads, without affecting each other.</p>
+ * <p>Get a new cursor through {@link FileData#newLinkCursor()}
+ */
+public class LinkCursor {
+	private ArrayList<FileData.Link> links;
+	private HashMap<String, FileData.Link> firstLinks;
+	private int position = 0;
+	private FileData.Link current = null;
+
+	/**
+	 * Constructor for this object
+	 * @param links The links starting from the file, in the order they have been added
+	 * @param firstLinks The first link starting from every title
+	 */
+	LinkCursor(ArrayList<FileData.Link> links, HashMap<String, FileData.Link> firstLinks) {
+		this.links = links;
+		this.firstLinks = firstLinks;
+	}
+
+	/**
+	 * Moves the cursor to the next link, in the order the links have been added
+	 * @return True if a next link exists, false otherwise
+	 */
+	public boolean next() {
+		if (position < links.size()) {
+			current = links.get(position++);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the cursor to the first link starting from a title, in constant time
+	 * @param sourceTitle The given title
+	 * @return True if a link starting from such title exists, false otherwise
+	 */
+	public boolean moveToLinkFrom(String sourceTitle) {
+		FileData.Link link = firstLinks.get(sourceTitle);
+		if (link == null)
+			return false;
+		current = link;
+		return true;
+	}
+
+	/**
+	 * Returns the title in the source file for the current link
+	 * @return The linked title in the source file
+	 */
+	public String getSourceTitle() {
+		return current.getSourceTitle();
+	}
+
+	/**
+	 * Returns the name of the destination file for the current link
+	 * @return The name of the destination file
+	 */
+	public String getDestinationFile() {
+		return current.getDestinationFile();
+	}
+
+	/**
+	 * Returns the title in the destination file for the current link
+	 * @return The linked title in the destination file
+	 */
+	public String getDestinationTitle() {
+		return current.getDestinationTitle();
+	}
+
+	/**
+	 * Returns the substitutive row name for the destination file of the current link
+	 * @return The substitutive row name, null for none
+	 */
+	public String getRowName() {
+		return current.getDestinationRowName();
+	}
+
+	/**
+	 * Checks if the current link is a search one
+	 * @return True if the link is a search one, false otherwise
+	 */
+	public boolean isSearch() {
+		return current.isSearch();
+	}
+}
@@ -0,0 +1,188 @@
+package i42pc.traindata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>This class represents a whole file mapped in memory through {@link FileChannel#map}.</p>
+ * <p>The file is mapped in segments of 1 GiB, so files of any size are supported.
+ * Ranges of bytes are addressed by their absolute position in the file, even when they cross two segments.
+ */
+class MappedFile {
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private MappedByteBuffer[] segments;
+	private long length;
+
+	private MappedFile(MappedByteBuffer[] segments, long length) {
+		this.segments = segments;
+		this.length = length;
+	}
+
+	/**
+	 * Maps a file in memory (read only)
+	 * @param file The file to be mapped
+	 * @return The mapped file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public static MappedFile map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long length = channel.size();
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+			}
+			return new MappedFile(segments, length);
+		} finally {
+			raf.close(); // the mapping stays valid after the channel is closed
+		}
+	}
+
+	/**
+	 * Returns the length of the file
+	 * @return The number of bytes in the file
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Returns a single byte of the file
+	 * @param position The position of the byte
+	 * @return The byte
+	 */
+	public byte get(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK));
+	}
+
+	/**
+	 * Copies a range of bytes of the file
+	 * @param position The position of the first byte
+	 * @param destination The array the bytes are copied to
+	 * @param offset The position in destination of the first copied byte
+	 * @param count The number of bytes to be copied
+	 */
+	public void get(long position, byte[] destination, int offset, int count) {
+		while (count > 0) {
+			MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+			int start = (int) (position & SEGMENT_MASK);
+			int chunk = Math.min(count, segment.capacity() - start);
+			ByteBuffer view = segment.duplicate();
+			view.position(start);
+			view.get(destination, offset, chunk);
+			position += chunk;
+			offset += chunk;
+			count -= chunk;
+		}
+	}
+
+	/**
+	 * Decodes a range of utf-8 bytes of the file into a String
+	 * @param position The position of the first byte
+	 * @param count The number of bytes
+	 * @return The decoded String
+	 */
+	public String decode(long position, int count) {
+		byte[] bytes = new byte[count];
+		get(position, bytes, 0, count);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Computes the hash of a range of bytes of the file, equal to {@link #hash(byte[])} for the same bytes
+	 * @param position The position of the first byte
+	 * @param count The number of bytes
+	 * @return The hash of the bytes
+	 */
+	public int hash(long position, int count) {
+		int hash = 1;
+		for (int i = 0; i < count; i++) {
+			hash = 31 * hash + get(position + i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Computes the hash of an array of bytes, equal to {@link #hash(long, int)} for the same bytes
+	 * @param bytes The bytes
+	 * @return The hash of the bytes
+	 */
+	public static int hash(byte[] bytes) {
+		int hash = 1;
+		for (byte b : bytes) {
+			hash = 31 * hash + b;
+		}
+		return hash;
+	}
+
+	/**
+	 * Checks if a range of bytes of the file is equal to an array of bytes
+	 * @param position The position of the first byte
+	 * @param count The number of bytes
+	 * @param other The array of bytes
+	 * @return True if the bytes are equal, false otherwise
+	 */
+	public boolean equals(long position, int count, byte[] other) {
+		if (count != other.length)
+			return false;
+		for (int i = 0; i < count; i++) {
+			if (get(position + i) != other[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if two ranges of bytes of the file are equal
+	 * @param position The position of the first byte of the first range
+	 * @param count The number of bytes of the first range
+	 * @param otherPosition The position of the first byte of the second range
+	 * @param otherCount The number of bytes of the second range
+	 * @return True if the bytes are equal, false otherwise
+	 */
+	public boolean equals(long position, int count, long otherPosition, int otherCount) {
+		if (count != otherCount)
+			return false;
+		for (int i = 0; i < count; i++) {
+			if (get(position + i) != get(otherPosition + i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns a stream reading the whole file from the mapping
+	 * @return A new InputStream
+	 */
+	public InputStream newInputStream() {
+		return new InputStream() {
+			private long position = 0;
+
+			public int read() {
+				return (position < length) ? get(position++) & 0xff : -1;
+			}
+
+			public int read(byte[] b, int off, int len) {
+				if (len == 0)
+					return 0;
+				if (position >= length)
+					return -1;
+				int count = (int) Math.min(len, length - position);
+				get(position, b, off, count);
+				position += count;
+				return count;
+			}
+		};
+	}
+}
@@ -0,0 +1,22 @@
+package i42pc.traindata;
+
+/**
+ * <p>This interface receives the progress of an export while it runs (see {@link XMLFileWriter#setProgressListener(ProgressListener)}).</p>
+ * <p>The progress is measured on the rows of the starting file, the top-level ones: the rows of the linked files are written inside them.<br>
+ * Its methods are always called by the thread running the export, so they don't need to be thread safe, but they should return quickly.
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called while the export runs, at most once per interval of the writer
+	 * @param progress The progress of the export
+	 */
+	public void progressChanged(ExportProgress progress);
+
+	/**
+	 * Called once when the export ends, successfully or not
+	 * @param progress The final progress of the export
+	 * @param successful True if the export is successful, false otherwise
+	 */
+	public void exportFinished(ExportProgress progress, boolean successful);
+}
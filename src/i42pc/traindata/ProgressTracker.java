@@ -0,0 +1,58 @@
+package i42pc.traindata;
+
+/**
+ * <p>This class counts the rows done by an export and calls its {@link ProgressListener}, at most once per interval.</p>
+ * <p>Checking if a call is due costs a single {@link System#nanoTime()} per row: the number of elements written,
+ * which can be expensive to sum up, is asked to the caller only when the call is due.
+ */
+class ProgressTracker {
+	private ProgressListener listener;
+	private long totalRows;
+	private long intervalNanos;
+	private long startNanos;
+	private long nextReport;
+	private long rowsDone = 0;
+
+	/**
+	 * Constructor for this object: the export is considered started
+	 * @param listener The listener receiving the progress
+	 * @param totalRows The number of rows of the starting file
+	 * @param intervalMillis The minimum time between two calls of the listener
+	 */
+	public ProgressTracker(ProgressListener listener, long totalRows, long intervalMillis) {
+		this.listener = listener;
+		this.totalRows = totalRows;
+		this.intervalNanos = intervalMillis * 1000000;
+		this.startNanos = System.nanoTime();
+		this.nextReport = startNanos + intervalNanos;
+	}
+
+	/**
+	 * Adds some rows done
+	 * @param rows The number of rows
+	 * @return True if the listener should be called now, through {@link #report(long)}
+	 */
+	public boolean addRows(long rows) {
+		rowsDone += rows;
+		return System.nanoTime() - nextReport >= 0;
+	}
+
+	/**
+	 * Calls the listener with the current progress
+	 * @param elementsWritten The number of elements written so far
+	 */
+	public void report(long elementsWritten) {
+		long now = System.nanoTime();
+		nextReport = now + intervalNanos;
+		listener.progressChanged(new ExportProgress(rowsDone, totalRows, elementsWritten, now - startNanos));
+	}
+
+	/**
+	 * Calls the listener for the end of the export
+	 * @param elementsWritten The number of elements written
+	 * @param successful True if the export is successful, false otherwise
+	 */
+	public void finish(long elementsWritten, boolean successful) {
+		listener.exportFinished(new ExportProgress(rowsDone, totalRows, elementsWritten, System.nanoTime() - startNanos), successful);
+	}
+}
@@ -0,0 +1,293 @@
+package i42pc.traindata;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * <p>This class holds everything {@link XMLFileWriter} needs to know to print the rows of a file, computed once before printing.</p>
+ * <p>All of these informations depend only on the file and its columns, not on the single rows:<br>
+ * <ul>
+ * <li>The name and the attribute of the row tag, and the column containing the value of the attribute</li>
+ * <li>For every column: if it's printed, the name of its tag and of its attribute</li>
+ * <li>For every column: the plan of the file linked to it, if any</li>
+ * <li>The search link filtering the rows of the file, if any</li>
+ * </ul>
+ * A plan is valid as long as the row tag, the valid titles and the links of the files aren't changed.
+ */
+class RenderPlan {
+	private static final String DEFAULT_ROW_TITLE = "row";
+	private static final String NOT_PRINTING_ROW = "#NO#PRINT#";
+
+	private FileData file;
+	private boolean valid = true;
+
+	private String rowTitle;
+	private String rowAttributeName;
+	private int rowAttributeColumn = -1;
+
+	private String[] tagNames;
+	private String[] attributeNames;
+	private boolean[] visible;
+	private RenderPlan[] linkPlans;
+	private String[] linkSearchTitles;
+	private boolean[] linkCacheable;
+	private String[] linkNames;
+
+	private FileData searchFile;
+	private String searchTitle;
+	private int searchColumn = -1;
+
+	/**
+	 * Compiles the plan for a file, along with the plans of all of the files linked to it
+	 * @param fileList The FileList containing the file and the linked ones
+	 * @param file The file to be printed
+	 * @param substituteRowName The name of the tag to substitute (only for the name, not for the behaviour) the row tag, null for none
+	 * @param rowAttribute The name of the attribute for the row tag (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
+	 * @param alternateRowAttribute The alternative name for the attribute of the row tag, if rowTag has no 'id' at the end
+	 * @param titleAttribute The name of the attribute for every title (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
+	 * @param alternateTitleAttribute The alternative name for the attribute of every title, if rowTag has no 'id' at the end
+	 * @return The compiled plan
+	 */
+	public static RenderPlan compile(FileList fileList, FileData file, String substituteRowName, String rowAttribute, String alternateRowAttribute, String titleAttribute, String alternateTitleAttribute) {
+		return compile(fileList, file, substituteRowName, rowAttribute, alternateRowAttribute, titleAttribute, alternateTitleAttribute, new HashMap<String, RenderPlan>());
+	}
+
+	private static RenderPlan compile(FileList fileList, FileData file, String substituteRowName, String rowAttribute, String alternateRowAttribute, String titleAttribute, String alternateTitleAttribute, HashMap<String, RenderPlan> compiled) {
+		String key = file.getName() + '\u0000' + substituteRowName;
+		RenderPlan plan = compiled.get(key);
+		if (plan != null)
+			return plan;
+		plan = new RenderPlan(file);
+		compiled.put(key, plan);
+
+		List<String> fileTitles = file.getTitlesView();
+		HashSet<String> validTitles = new HashSet<String>(file.getValidTitlesView());
+		String rowTag = file.getRowTag();
+
+		// search link
+		int searchCount = 0;
+		LinkCursor links = file.newLinkCursor();
+		while (links.next()) {
+			if (links.isSearch()) {
+				searchCount++;
+				if (searchCount > 1) break;
+				plan.searchTitle = links.getDestinationTitle();
+				plan.searchFile = fileList.getFile(links.getDestinationFile());
+				plan.searchColumn = file.getTitleIndex(links.getSourceTitle());
+			}
+		}
+		if (searchCount > 1)
+			plan.valid = false;
+
+		// row tag
+		if ((rowTag != null || substituteRowName != null) && !NOT_PRINTING_ROW.equals(substituteRowName)) {
+			String usedRowTag = (rowTag == null) ? substituteRowName : rowTag;
+			String[] rowSplit = usedRowTag.split("_");
+			if (rowSplit[rowSplit.length - 1].equals(rowAttribute) && rowSplit.length > 1) {
+				plan.rowTitle = usedRowTag.substring(0, usedRowTag.lastIndexOf('_'));
+				plan.rowAttributeName = rowAttribute;
+			}
+			else {
+				plan.rowTitle = usedRowTag;
+				plan.rowAttributeName = alternateRowAttribute;
+			}
+			if (substituteRowName != null) {
+				plan.rowTitle = substituteRowName;
+			}
+			plan.rowAttributeColumn = file.getTitleIndex(usedRowTag);
+		}
+		else if (substituteRowName == null) {
+			plan.rowTitle = DEFAULT_ROW_TITLE;
+		}
+
+		// columns
+		int columnCount = fileTitles.size();
+		plan.tagNames = new String[columnCount];
+		plan.attributeNames = new String[columnCount];
+		plan.visible = new boolean[columnCount];
+		plan.linkPlans = new RenderPlan[columnCount];
+		plan.linkSearchTitles = new String[columnCount];
+		plan.linkCacheable = new boolean[columnCount];
+		plan.linkNames = new String[columnCount];
+		for (int id = 0; id < columnCount; id++) {
+			String title = fileTitles.get(id);
+			if (!title.equals(rowTag) && validTitles.contains(title)) {
+				plan.visible[id] = true;
+				String[] titleSplit = title.split("_");
+				if (titleSplit[titleSplit.length - 1].equals(titleAttribute) && titleSplit.length > 1) {
+					plan.tagNames[id] = title.substring(0, title.lastIndexOf('_'));
+					plan.attributeNames[id] = titleAttribute;
+				}
+				else {
+					plan.tagNames[id] = title;
+					plan.attributeNames[id] = alternateTitleAttribute;
+				}
+			}
+			if (links.moveToLinkFrom(title) && !links.isSearch()) {
+				FileData linkedFile = fileList.getFile(links.getDestinationFile());
+				plan.linkPlans[id] = compile(fileList, linkedFile, links.getRowName(), rowAttribute, alternateRowAttribute, titleAttribute, alternateTitleAttribute, compiled);
+				plan.linkSearchTitles[id] = title;
+				plan.linkCacheable[id] = hasRepeatedValues(file, id);
+				plan.linkNames[id] = file.getName() + "." + title + " -> " + links.getDestinationFile() + "." + links.getDestinationTitle();
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Checks if a value of a column appears in more than one row, so that the subtree linked to it can be needed more than once
+	 * @param file The file
+	 * @param column The position of the column
+	 * @return True if some values are repeated, false if every value is unique
+	 */
+	private static boolean hasRepeatedValues(FileData file, int column) {
+		Column values = file.getColumn(column);
+		return values != null && values.getDictionarySize() < values.size();
+	}
+
+	private RenderPlan(FileData file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the file printed with this plan
+	 * @return The FileData object
+	 */
+	public FileData getFile() {
+		return file;
+	}
+
+	/**
+	 * Checks if the file can be printed: a file can't be printed if it has more than one search link
+	 * @return True if the file can be printed, false otherwise
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Returns the name of the tag surrounding every row
+	 * @return The name of the row tag, or null if the rows aren't surrounded by a tag
+	 */
+	public String getRowTitle() {
+		return rowTitle;
+	}
+
+	/**
+	 * Returns the name of the attribute of the row tag
+	 * @return The name of the attribute, or null if the row tag has no attribute
+	 */
+	public String getRowAttributeName() {
+		return (rowAttributeColumn == -1) ? null : rowAttributeName;
+	}
+
+	/**
+	 * Returns the column containing the value of the attribute of the row tag
+	 * @return The position of the column, or -1 if the row tag has no attribute
+	 */
+	public int getRowAttributeColumn() {
+		return rowAttributeColumn;
+	}
+
+	/**
+	 * Checks if a column is printed as a tag inside the row tag
+	 * @param column The position of the column
+	 * @return True if the column is printed, false otherwise
+	 */
+	public boolean isVisible(int column) {
+		return visible[column];
+	}
+
+	/**
+	 * Returns the name of the tag of a column
+	 * @param column The position of the column
+	 * @return The name of the tag, null if the column isn't printed
+	 */
+	public String getTagName(int column) {
+		return tagNames[column];
+	}
+
+	/**
+	 * Returns the name of the attribute of the tag of a column
+	 * @param column The position of the column
+	 * @return The name of the attribute, null if the column isn't printed
+	 */
+	public String getAttributeName(int column) {
+		return attributeNames[column];
+	}
+
+	/**
+	 * Returns the plan of the file linked to a column
+	 * @param column The position of the column
+	 * @return The plan of the linked file, or null if the column has no link
+	 */
+	public RenderPlan getLinkPlan(int column) {
+		return linkPlans[column];
+	}
+
+	/**
+	 * Returns the title used to search the rows of the linked file matching a value of the column
+	 * @param column The position of the column
+	 * @return The title to be searched in the linked file, or null if the column has no link
+	 */
+	public String getLinkSearchTitle(int column) {
+		return linkSearchTitles[column];
+	}
+
+	/**
+	 * Checks if the subtree linked to a column can be kept in the fragment cache (see {@link XMLFileWriter#enableFragmentCache(int)}):
+	 * it's useless to keep the subtrees linked to a column whose values are all different, like the ids of the trips
+	 * @param column The position of the column
+	 * @return True if the values of the column repeat, false otherwise or if the column has no link
+	 */
+	public boolean isLinkCacheable(int column) {
+		return linkCacheable[column];
+	}
+
+	/**
+	 * Returns the name of the link of a column, used by the metrics (see {@link ExportMetrics#getLinkTraversals(String)})
+	 * @param column The position of the column
+	 * @return The name of the link, like {@code trips.txt.route_id -> routes.txt.route_id}, or null if the column has no link
+	 */
+	public String getLinkName(int column) {
+		return linkNames[column];
+	}
+
+	/**
+	 * Builds the indexes used to search the linked files of this plan and of all of the linked plans (see {@link FileData#prepareIndex(String)}),
+	 * so that the plan can be used by many threads at the same time
+	 */
+	public void prepareIndexes() {
+		prepareIndexes(new HashSet<RenderPlan>());
+	}
+	
+	private void prepareIndexes(HashSet<RenderPlan> prepared) {
+		if (!prepared.add(this))
+			return;
+		for (int id = 0; id < linkPlans.length; id++) {
+			if (linkPlans[id] != null) {
+				linkPlans[id].getFile().prepareIndex(linkSearchTitles[id]);
+				linkPlans[id].prepareIndexes(prepared);
+			}
+		}
+	}
+	
+	/**
+	 * Checks if the rows of the file are filtered through a search link
+	 * @return True if a search link exists, false otherwise
+	 */
+	public boolean hasSearch() {
+		return searchFile != null;
+	}
+
+	/**
+	 * Checks if a row passes the search link of the file
+	 * Call this only if {@link #hasSearch()} returns true
+	 * @param row The row to be checked
+	 * @return True if the value of the row exists in the filtering file, false otherwise
+	 */
+	public boolean matchesSearch(RowView row) {
+		return searchFile.containsValue(row.get(searchColumn), searchTitle);
+	}
+}
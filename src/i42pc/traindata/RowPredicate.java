@@ -0,0 +1,311 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * <p>This class represents a condition on the rows of a table, used to select them without copying them (see {@link FileData#select(RowPredicate)}).</p>
+ * <p>The conditions are built through the static methods of this class, and can be combined with {@link #and(RowPredicate...)} and {@link #or(RowPredicate...)}:<br>
+ * {@code RowPredicate.and(RowPredicate.eq("route_id", "R1"), RowPredicate.in("direction_id", "0", "1"))}</p>
+ * <p>The conditions on a single column are checked once for every distinct value of the column, not for every row:
+ * the rows are then found through the hash index of the column if it has already been built (see {@link FileData#getRowIds(String, String)}),
+ * or by scanning the codes of the column otherwise. On the typed columns, whose codes follow the order of the values,
+ * the numbers matching {@link #between(String, double, double)} are found with a binary search instead.<br>
+ * A predicate never changes, so it can be used many times and by many threads.
+ */
+public abstract class RowPredicate {
+
+	/**
+	 * Selects the rows matching this predicate
+	 * @param table The table to be checked
+	 * @return The ids of the matching rows, or null if a title of the predicate doesn't exist in the table
+	 */
+	abstract BitSet evaluate(FrozenFileData table);
+
+	/**
+	 * Returns a predicate selecting the rows whose value in a column is equal to a given one
+	 * @param title The title of the column
+	 * @param value The value
+	 * @return The new predicate
+	 */
+	public static RowPredicate eq(String title, String value) {
+		return in(title, Arrays.asList(value));
+	}
+
+	/**
+	 * Returns a predicate selecting the rows whose value in a column is one of some given ones
+	 * @param title The title of the column
+	 * @param values The values
+	 * @return The new predicate
+	 */
+	public static RowPredicate in(String title, String... values) {
+		return in(title, Arrays.asList(values));
+	}
+
+	/**
+	 * Returns a predicate selecting the rows whose value in a column is one of some given ones
+	 * @param title The title of the column
+	 * @param values The values
+	 * @return The new predicate
+	 */
+	public static RowPredicate in(String title, Collection<String> values) {
+		return new InPredicate(title, values);
+	}
+
+	/**
+	 * Returns a predicate selecting the rows whose value in a column starts with a given prefix
+	 * @param title The title of the column
+	 * @param prefix The prefix
+	 * @return The new predicate
+	 */
+	public static RowPredicate prefix(final String title, final String prefix) {
+		return new ColumnPredicate(title) {
+			boolean matches(String value) {
+				return value.startsWith(prefix);
+			}
+		};
+	}
+
+	/**
+	 * <p>Returns a predicate selecting the rows whose value in a column is between two given ones, in the alphabetical order of the text.</p>
+	 * <p>The alphabetical order works for the values with a fixed width, like the dates ({@code yyyyMMdd}) and the times ({@code HH:MM:SS}):
+	 * see {@link #between(String, double, double)} to compare numbers.
+	 * @param title The title of the column
+	 * @param from The lowest value (included), null for no lower bound
+	 * @param to The highest value (included), null for no upper bound
+	 * @return The new predicate
+	 */
+	public static RowPredicate range(final String title, final String from, final String to) {
+		return new ColumnPredicate(title) {
+			boolean matches(String value) {
+				return (from == null || value.compareTo(from) >= 0) && (to == null || value.compareTo(to) <= 0);
+			}
+		};
+	}
+
+	/**
+	 * <p>Returns a predicate selecting the rows whose value in a column is a number between two given ones.</p>
+	 * <p>On the typed columns (see {@link ColumnType}) the numbers are compared without parsing any text: the times are compared as
+	 * seconds from midnight and the flags as 0 or 1. On the text columns, the values which aren't numbers never match.
+	 * @param title The title of the column
+	 * @param min The lowest number (included)
+	 * @param max The highest number (included)
+	 * @return The new predicate
+	 */
+	public static RowPredicate between(String title, double min, double max) {
+		return new NumberRangePredicate(title, min, max);
+	}
+
+	/**
+	 * Returns a predicate selecting the rows matching all of some given predicates
+	 * @param predicates The predicates (with none, every row matches)
+	 * @return The new predicate
+	 */
+	public static RowPredicate and(RowPredicate... predicates) {
+		return new CombinedPredicate(predicates, true);
+	}
+
+	/**
+	 * Returns a predicate selecting the rows matching at least one of some given predicates
+	 * @param predicates The predicates (with none, no row matches)
+	 * @return The new predicate
+	 */
+	public static RowPredicate or(RowPredicate... predicates) {
+		return new CombinedPredicate(predicates, false);
+	}
+
+	/**
+	 * Internal class to represent a condition on the values of a single column
+	 */
+	private abstract static class ColumnPredicate extends RowPredicate {
+		protected String title;
+
+		public ColumnPredicate(String title) {
+			this.title = title;
+		}
+
+		BitSet evaluate(FrozenFileData table) {
+			int titleId = table.getTitleIndex(title);
+			if (titleId == -1)
+				return null;
+			BitSet out = new BitSet(table.getRowCount());
+			if (titleId >= table.getColumnCount())
+				return out;
+			Column column = table.getColumn(titleId);
+			selectRows(column, table.getIndex(title), out);
+			return out;
+		}
+
+		/**
+		 * Selects the matching rows of a column
+		 * @param column The column
+		 * @param index The hash index of the column, null if it hasn't been built
+		 * @param out The bitmap where the matching rows are set
+		 */
+		void selectRows(Column column, int[][] index, BitSet out) {
+			boolean[] codes = matchingCodes(column);
+			if (index != null) {
+				for (int code = 0; code < codes.length; code++) {
+					if (codes[code]) {
+						for (int rowId : index[code])
+							out.set(rowId);
+					}
+				}
+				return;
+			}
+			for (int rowId = 0; rowId < column.size(); rowId++) {
+				if (codes[column.getCode(rowId)])
+					out.set(rowId);
+			}
+		}
+
+		/**
+		 * Checks every distinct value of a column
+		 * @param column The column
+		 * @return For every code of the column, true if its value matches
+		 */
+		boolean[] matchingCodes(Column column) {
+			boolean[] codes = new boolean[column.getDictionarySize()];
+			for (int code = 0; code < codes.length; code++) {
+				codes[code] = matches(column.getValue(code));
+			}
+			return codes;
+		}
+
+		/**
+		 * Checks a single value
+		 * @param value The value
+		 * @return True if the value matches, false otherwise
+		 */
+		abstract boolean matches(String value);
+	}
+
+	/**
+	 * Internal class to represent the condition of {@link RowPredicate#in(String, Collection)}: the values are found through the dictionary of the column
+	 */
+	private static class InPredicate extends ColumnPredicate {
+		private HashSet<String> values;
+
+		public InPredicate(String title, Collection<String> values) {
+			super(title);
+			this.values = new HashSet<String>(values);
+		}
+
+		boolean[] matchingCodes(Column column) {
+			boolean[] codes = new boolean[column.getDictionarySize()];
+			for (String value : values) {
+				int code = column.findCode(value);
+				if (code != -1)
+					codes[code] = true;
+			}
+			return codes;
+		}
+
+		boolean matches(String value) {
+			return values.contains(value);
+		}
+	}
+
+	/**
+	 * Internal class to represent the condition of {@link RowPredicate#between(String, double, double)}
+	 */
+	private static class NumberRangePredicate extends ColumnPredicate {
+		private double min;
+		private double max;
+
+		public NumberRangePredicate(String title, double min, double max) {
+			super(title);
+			this.min = min;
+			this.max = max;
+		}
+
+		void selectRows(Column column, int[][] index, BitSet out) {
+			if (column.getType() == ColumnType.TEXT) {
+				super.selectRows(column, index, out);
+				return;
+			}
+			if (!(min <= max))
+				return; // an empty range, or a bound which isn't a number
+			// the codes of the typed columns follow the order of the values, so the matching ones are a range
+			int from = firstCode(column, min, false);
+			int to = firstCode(column, max, true);
+			if (from >= to)
+				return;
+			if (index != null) {
+				for (int code = from; code < to; code++) {
+					for (int rowId : index[code])
+						out.set(rowId);
+				}
+				return;
+			}
+			for (int rowId = 0; rowId < column.size(); rowId++) {
+				int code = column.getCode(rowId);
+				if (code >= from && code < to)
+					out.set(rowId);
+			}
+		}
+
+		/**
+		 * Searches the sorted values of a typed column
+		 * @param column The typed column
+		 * @param bound The number to be searched
+		 * @param above False to find the first value not lower than the bound, true to find the first value greater than it
+		 * @return The code of the value found, or the size of the dictionary if there's none
+		 */
+		private static int firstCode(Column column, double bound, boolean above) {
+			int low = 0;
+			int high = column.getDictionarySize();
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				double value = column.getDoubleValue(middle);
+				if (above ? value <= bound : value < bound)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			return low;
+		}
+
+		boolean matches(String value) {
+			try {
+				double number = Double.parseDouble(value);
+				return number >= min && number <= max;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Internal class to represent the conditions of {@link RowPredicate#and(RowPredicate...)} and {@link RowPredicate#or(RowPredicate...)}
+	 */
+	private static class CombinedPredicate extends RowPredicate {
+		private List<RowPredicate> predicates;
+		private boolean all;
+
+		public CombinedPredicate(RowPredicate[] predicates, boolean all) {
+			this.predicates = new ArrayList<RowPredicate>(Arrays.asList(predicates));
+			this.all = all;
+		}
+
+		BitSet evaluate(FrozenFileData table) {
+			BitSet out = new BitSet(table.getRowCount());
+			if (all)
+				out.set(0, table.getRowCount());
+			for (RowPredicate predicate : predicates) {
+				BitSet rows = predicate.evaluate(table);
+				if (rows == null)
+					return null;
+				if (all)
+					out.and(rows);
+				else
+					out.or(rows);
+			}
+			return out;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package i42pc.traindata;
+
+import java.util.BitSet;
+
+/**
+ * <p>This class represents a set of rows of a table, selected by a {@link RowPredicate} (see {@link FileData#select(RowPredicate)}).</p>
+ * <p>It keeps only the ids of the rows, as a bitmap, instead of copying them: the rows are read through the table
+ * the selection comes from, for example with a {@link RowView}.<br>
+ * A selection never changes: {@link #and(RowSelection)} and {@link #or(RowSelection)} return new ones.
+ */
+public final class RowSelection {
+	private final BitSet rows;
+	private final int rowCount;
+
+	/**
+	 * Constructor for this object
+	 * @param rows The ids of the selected rows (the bitmap is kept, so it must not be changed afterwards)
+	 * @param rowCount The number of rows of the table
+	 */
+	RowSelection(BitSet rows, int rowCount) {
+		this.rows = rows;
+		this.rowCount = rowCount;
+	}
+
+	/**
+	 * Returns the number of rows selected
+	 * @return The number of rows
+	 */
+	public int size() {
+		return rows.cardinality();
+	}
+
+	/**
+	 * Checks if no row is selected
+	 * @return True if the selection is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return rows.isEmpty();
+	}
+
+	/**
+	 * Returns the number of rows of the table the selection comes from
+	 * @return The number of rows of the table
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Checks if a row is selected
+	 * @param rowId The position of the row in the table
+	 * @return True if the row is selected, false otherwise
+	 */
+	public boolean contains(int rowId) {
+		return rowId >= 0 && rows.get(rowId);
+	}
+
+	/**
+	 * Returns the first selected row starting from a given one, to loop on the selection:
+	 * {@code for (int id = s.nextRowId(0); id != -1; id = s.nextRowId(id + 1))}
+	 * @param fromRowId The position of the first row to be checked
+	 * @return The position of the selected row, or -1 if there are no more selected rows
+	 */
+	public int nextRowId(int fromRowId) {
+		return rows.nextSetBit(fromRowId);
+	}
+
+	/**
+	 * Returns the ids of the rows selected
+	 * @return A fresh array containing the ids, in ascending order
+	 */
+	public int[] toArray() {
+		int[] out = new int[rows.cardinality()];
+		int i = 0;
+		for (int id = rows.nextSetBit(0); id != -1; id = rows.nextSetBit(id + 1)) {
+			out[i++] = id;
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the rows selected by both this selection and another one of the same table
+	 * @param other The other selection
+	 * @return A new selection
+	 */
+	public RowSelection and(RowSelection other) {
+		BitSet out = (BitSet) rows.clone();
+		out.and(other.rows);
+		return new RowSelection(out, rowCount);
+	}
+
+	/**
+	 * Returns the rows selected by this selection or by another one of the same table
+	 * @param other The other selection
+	 * @return A new selection
+	 */
+	public RowSelection or(RowSelection other) {
+		BitSet out = (BitSet) rows.clone();
+		out.or(other.rows);
+		return new RowSelection(out, rowCount);
+	}
+
+	/**
+	 * Returns the bitmap of the selected rows
+	 * @return The bitmap, which must not be changed
+	 */
+	BitSet getBitSet() {
+		return rows;
+	}
+}
@@ -0,0 +1,23 @@
+package i42pc.traindata;
+
+/**
+ * <p>This interface represents a table whose rows can be read through a {@link RowView}.</p>
+ * <p>It's implemented by {@link FileData} and by its immutable snapshot {@link FrozenFileData}.
+ */
+interface RowSource {
+
+	/**
+	 * Returns the value of a single cell, without copying the row
+	 * @param rowId The position of the row in the table
+	 * @param column The position of the column in the titles list
+	 * @return The value of the cell
+	 */
+	public String getValue(int rowId, int column);
+
+	/**
+	 * Returns the number of cells filled in a row (it's the number of titles for every complete row)
+	 * @param rowId The position of the row in the table
+	 * @return The number of cells
+	 */
+	public int getCellCount(int rowId);
+}
@@ -0,0 +1,74 @@
+package i42pc.traindata;
+
+import java.util.ArrayList;
+
+/**
+ * <p>This class is a read-only view on a single row of a {@link FileData} or {@link FrozenFileData} table.</p>
+ * <p>Unlike {@link FileData#getRow(int)} it doesn't copy the row: the values are read straight from the table.<br>
+ * The same view can be moved from row to row (see {@link #moveTo(int)}), so a whole table can be read without creating any new object.</p>
+ * <p>Every view keeps its own position, so many views can read the same table at the same time.<br>
+ * Get a new view through {@link FileData#newRowView()} or {@link FrozenFileData#newRowView()}
+ */
+public class RowView {
+	private RowSource file;
+	private int rowId = -1;
+	private int size = 0;
+
+	/**
+	 * Constructor for this object: the view doesn't point to any row until {@link #moveTo(int)} is called
+	 * @param file The table containing the rows
+	 */
+	RowView(RowSource file) {
+		this.file = file;
+	}
+
+	/**
+	 * Moves the view to a given row
+	 * @param rowId The position of the row in the table
+	 * @return This view, for convenience
+	 */
+	public RowView moveTo(int rowId) {
+		this.rowId = rowId;
+		this.size = file.getCellCount(rowId);
+		return this;
+	}
+
+	/**
+	 * Returns the position in the table of the row this view points to
+	 * @return The id of the row, -1 if the view hasn't been moved to any row yet
+	 */
+	public int getRowId() {
+		return rowId;
+	}
+
+	/**
+	 * Returns the value of a cell of the row
+	 * @param column The position of the column (as in {@link FileData#getTitles()})
+	 * @return The value of the cell
+	 */
+	public String get(int column) {
+		if (column >= size)
+			throw new IndexOutOfBoundsException("Column: " + column + ", Size: " + size);
+		return file.getValue(rowId, column);
+	}
+
+	/**
+	 * Returns the number of cells in the row
+	 * @return The number of cells
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a copy of the row, as {@link FileData#getRow(int)} would
+	 * @return A fresh ArrayList<String> containing the row
+	 */
+	public ArrayList<String> toList() {
+		ArrayList<String> out = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			out.add(get(i));
+		}
+		return out;
+	}
+}
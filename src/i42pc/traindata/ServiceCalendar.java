@@ -0,0 +1,377 @@
+package i42pc.traindata;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>This class is the index of the days in which every service runs, built once from calendar.txt, calendar_dates.txt and trips.txt.</p>
+ * <p>The services of calendar.txt run on the days of the week marked in their row, from {@code start_date} to {@code end_date};
+ * then every row of calendar_dates.txt adds a day to a service ({@code exception_type} 1) or removes it ({@code exception_type} 2).<br>
+ * For every day between the first and the last date of the two files, the index keeps the bitmap of the active services,
+ * and for every service it keeps the rows of trips.txt using it, so that:
+ * <ul>
+ * <li>checking if a service or a trip runs on a day takes a single bit lookup</li>
+ * <li>finding the trips running on a day takes time proportional to the number of such trips, not to the whole table</li>
+ * </ul>
+ * The dates are in the {@code yyyyMMdd} format of the files. The index never changes, so it can be used by many threads.</p>
+ */
+public final class ServiceCalendar {
+	public static final String CALENDAR_FILE = "calendar.txt";
+	public static final String CALENDAR_DATES_FILE = "calendar_dates.txt";
+	public static final String TRIPS_FILE = "trips.txt";
+
+	private static final String SERVICE_ID = "service_id";
+	private static final String START_DATE = "start_date";
+	private static final String END_DATE = "end_date";
+	private static final String DATE = "date";
+	private static final String EXCEPTION_TYPE = "exception_type";
+	private static final String[] WEEKDAYS = {"monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+	private static final String ADDED = "1";
+	private static final String REMOVED = "2";
+
+	private final HashMap<String, Integer> serviceIndexes = new HashMap<String, Integer>();
+	private final ArrayList<String> serviceIds = new ArrayList<String>();
+	private long firstDay = 0;
+	private BitSet[] activeServices = new BitSet[0];
+
+	private final FileData trips;
+	private int[] tripServices = new int[0];
+	private int[][] serviceTrips = new int[0][];
+
+	/**
+	 * Constructor for this object: it builds the whole index
+	 * The rows with a malformed date are ignored
+	 * @param calendar The calendar.txt file, null if it doesn't exist
+	 * @param calendarDates The calendar_dates.txt file, null if it doesn't exist
+	 * @param trips The trips.txt file, null if it doesn't exist (the trips can't be looked up then)
+	 */
+	public ServiceCalendar(FileData calendar, FileData calendarDates, FileData trips) {
+		this.trips = trips;
+		if (calendar != null && calendar.getTitleIndex(SERVICE_ID) == -1)
+			calendar = null;
+		if (calendarDates != null && calendarDates.getTitleIndex(SERVICE_ID) == -1)
+			calendarDates = null;
+		
+		// finds the range of the days
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		if (calendar != null) {
+			int startColumn = calendar.getTitleIndex(START_DATE);
+			int endColumn = calendar.getTitleIndex(END_DATE);
+			for (int rowId = 0; rowId < calendar.getRowCount(); rowId++) {
+				long start = toDay(value(calendar, rowId, startColumn));
+				long end = toDay(value(calendar, rowId, endColumn));
+				if (start == -1 || end == -1 || start > end)
+					continue;
+				first = Math.min(first, start);
+				last = Math.max(last, end);
+			}
+		}
+		if (calendarDates != null) {
+			int dateColumn = calendarDates.getTitleIndex(DATE);
+			for (int rowId = 0; rowId < calendarDates.getRowCount(); rowId++) {
+				long day = toDay(value(calendarDates, rowId, dateColumn));
+				if (day == -1)
+					continue;
+				first = Math.min(first, day);
+				last = Math.max(last, day);
+			}
+		}
+		if (first <= last) {
+			firstDay = first;
+			activeServices = new BitSet[(int) (last - first + 1)];
+			for (int day = 0; day < activeServices.length; day++) {
+				activeServices[day] = new BitSet();
+			}
+		}
+		
+		if (calendar != null)
+			addWeeklyServices(calendar);
+		if (calendarDates != null)
+			addExceptions(calendarDates);
+		if (trips != null)
+			indexTrips(trips);
+	}
+
+	/**
+	 * Marks the days of the services of calendar.txt
+	 * @param calendar The calendar.txt file
+	 */
+	private void addWeeklyServices(FileData calendar) {
+		int serviceColumn = calendar.getTitleIndex(SERVICE_ID);
+		int startColumn = calendar.getTitleIndex(START_DATE);
+		int endColumn = calendar.getTitleIndex(END_DATE);
+		int[] weekdayColumns = new int[WEEKDAYS.length];
+		for (int i = 0; i < WEEKDAYS.length; i++) {
+			weekdayColumns[i] = calendar.getTitleIndex(WEEKDAYS[i]);
+		}
+		boolean[] weekdays = new boolean[WEEKDAYS.length];
+		for (int rowId = 0; rowId < calendar.getRowCount(); rowId++) {
+			int service = addService(value(calendar, rowId, serviceColumn));
+			long start = toDay(value(calendar, rowId, startColumn));
+			long end = toDay(value(calendar, rowId, endColumn));
+			if (start == -1 || end == -1 || start > end)
+				continue;
+			for (int i = 0; i < WEEKDAYS.length; i++) {
+				weekdays[i] = ADDED.equals(value(calendar, rowId, weekdayColumns[i]));
+			}
+			// the day of the week of the first day, 0 for monday
+			int weekday = LocalDate.ofEpochDay(start).getDayOfWeek().getValue() - 1;
+			for (long day = start; day <= end; day++) {
+				if (weekdays[weekday])
+					activeServices[(int) (day - firstDay)].set(service);
+				weekday = (weekday + 1) % WEEKDAYS.length;
+			}
+		}
+	}
+
+	/**
+	 * Adds and removes the days of calendar_dates.txt
+	 * @param calendarDates The calendar_dates.txt file
+	 */
+	private void addExceptions(FileData calendarDates) {
+		int serviceColumn = calendarDates.getTitleIndex(SERVICE_ID);
+		int dateColumn = calendarDates.getTitleIndex(DATE);
+		int typeColumn = calendarDates.getTitleIndex(EXCEPTION_TYPE);
+		for (int rowId = 0; rowId < calendarDates.getRowCount(); rowId++) {
+			int service = addService(value(calendarDates, rowId, serviceColumn));
+			long day = toDay(value(calendarDates, rowId, dateColumn));
+			if (day == -1)
+				continue;
+			String type = value(calendarDates, rowId, typeColumn);
+			if (ADDED.equals(type))
+				activeServices[(int) (day - firstDay)].set(service);
+			else if (REMOVED.equals(type))
+				activeServices[(int) (day - firstDay)].clear(service);
+		}
+	}
+
+	/**
+	 * Finds the service of every trip, and the trips of every service
+	 * @param trips The trips.txt file
+	 */
+	private void indexTrips(FileData trips) {
+		int serviceColumn = trips.getTitleIndex(SERVICE_ID);
+		tripServices = new int[trips.getRowCount()];
+		// the services are looked up once for every distinct value, through the codes of the column if the file is finished
+		FrozenFileData frozen = trips.getFrozen();
+		Column column = (frozen == null || serviceColumn == -1 || serviceColumn >= frozen.getColumnCount()) ? null : frozen.getColumn(serviceColumn);
+		int[] codeServices = null;
+		if (column != null) {
+			codeServices = new int[column.getDictionarySize()];
+			for (int code = 0; code < codeServices.length; code++) {
+				codeServices[code] = addService(column.getValue(code));
+			}
+		}
+		// without the codes, every trip can add a new service
+		int[] tripCounts = new int[serviceIds.size() + tripServices.length];
+		for (int rowId = 0; rowId < tripServices.length; rowId++) {
+			if (codeServices != null)
+				tripServices[rowId] = (rowId < column.size()) ? codeServices[column.getCode(rowId)] : -1;
+			else
+				tripServices[rowId] = addService(value(trips, rowId, serviceColumn));
+			if (tripServices[rowId] != -1)
+				tripCounts[tripServices[rowId]]++;
+		}
+		serviceTrips = new int[serviceIds.size()][];
+		for (int service = 0; service < serviceTrips.length; service++) {
+			serviceTrips[service] = new int[tripCounts[service]];
+			tripCounts[service] = 0;
+		}
+		for (int rowId = 0; rowId < tripServices.length; rowId++) {
+			int service = tripServices[rowId];
+			if (service != -1)
+				serviceTrips[service][tripCounts[service]++] = rowId;
+		}
+	}
+
+	/**
+	 * Returns the index of a service, adding it if it's new
+	 * @param serviceId The id of the service
+	 * @return The index of the service, or -1 if the id is null
+	 */
+	private int addService(String serviceId) {
+		if (serviceId == null)
+			return -1;
+		Integer service = serviceIndexes.get(serviceId);
+		if (service == null) {
+			service = serviceIds.size();
+			serviceIndexes.put(serviceId, service);
+			serviceIds.add(serviceId);
+		}
+		return service;
+	}
+
+	private static String value(FileData file, int rowId, int column) {
+		if (column == -1 || column >= file.getCellCount(rowId))
+			return null;
+		return file.getValue(rowId, column);
+	}
+
+	/**
+	 * Converts a date to the number of days from 1970-01-01
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return The number of days, or -1 if the date is malformed
+	 */
+	private static long toDay(String date) {
+		if (date == null || date.length() != 8)
+			return -1;
+		int number = 0;
+		for (int i = 0; i < date.length(); i++) {
+			char c = date.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			number = number * 10 + (c - '0');
+		}
+		try {
+			return LocalDate.of(number / 10000, number / 100 % 100, number % 100).toEpochDay();
+		} catch (DateTimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Checks if a date is well formed
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return True if the date exists, false otherwise
+	 */
+	static boolean isDate(String date) {
+		return toDay(date) != -1;
+	}
+
+	/**
+	 * Returns the day before a date
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return The day before, as {@code yyyyMMdd}, or null if the date is malformed
+	 */
+	static String previousDate(String date) {
+		long day = toDay(date);
+		return (day == -1) ? null : format(day - 1);
+	}
+
+	/**
+	 * Returns the position of a date in the index, used by the queries running on many trips (see {@link #isTripActive(int, int)})
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return The position of the day, or -1 if the date is malformed or no service runs on it
+	 */
+	int getDay(String date) {
+		long day = toDay(date);
+		if (day == -1 || day < firstDay || day >= firstDay + activeServices.length)
+			return -1;
+		return (int) (day - firstDay);
+	}
+
+	/**
+	 * Returns the first date of calendar.txt and calendar_dates.txt
+	 * @return The first date, as {@code yyyyMMdd}, or null if no service has any valid date
+	 */
+	public String getFirstDate() {
+		return (activeServices.length == 0) ? null : format(firstDay);
+	}
+
+	/**
+	 * Returns the last date of calendar.txt and calendar_dates.txt
+	 * @return The last date, as {@code yyyyMMdd}, or null if no service has any valid date
+	 */
+	public String getLastDate() {
+		return (activeServices.length == 0) ? null : format(firstDay + activeServices.length - 1);
+	}
+
+	private static String format(long day) {
+		LocalDate date = LocalDate.ofEpochDay(day);
+		return String.format("%04d%02d%02d", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+
+	/**
+	 * Returns the number of services, counting the ones found only in trips.txt
+	 * @return The number of services
+	 */
+	public int getServiceCount() {
+		return serviceIds.size();
+	}
+
+	/**
+	 * Checks if a service runs on a given date
+	 * @param serviceId The id of the service
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return True if the service runs on the date, false otherwise or if the service doesn't exist
+	 */
+	public boolean isActive(String serviceId, String date) {
+		Integer service = serviceIndexes.get(serviceId);
+		int day = getDay(date);
+		return service != null && day != -1 && activeServices[day].get(service);
+	}
+
+	/**
+	 * Returns the services running on a given date
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return The ids of the services, in the order they are found in the files
+	 */
+	public List<String> getActiveServices(String date) {
+		ArrayList<String> out = new ArrayList<String>();
+		int day = getDay(date);
+		if (day == -1)
+			return out;
+		BitSet services = activeServices[day];
+		for (int service = services.nextSetBit(0); service >= 0; service = services.nextSetBit(service + 1)) {
+			out.add(serviceIds.get(service));
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the trips file used by this index
+	 * @return The trips.txt file, null if it hasn't been given
+	 */
+	public FileData getTrips() {
+		return trips;
+	}
+
+	/**
+	 * Checks if a trip runs on a given date
+	 * @param tripRowId The position of the trip in trips.txt
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return True if the trip runs on the date, false otherwise or if the row doesn't exist
+	 */
+	public boolean isTripActive(int tripRowId, String date) {
+		int day = getDay(date);
+		return day != -1 && isTripActive(tripRowId, day);
+	}
+
+	/**
+	 * Checks if a trip runs on a given day, see {@link #getDay(String)}
+	 * @param tripRowId The position of the trip in trips.txt
+	 * @param day The position of the day in the index, -1 for none
+	 * @return True if the trip runs on the day, false otherwise
+	 */
+	boolean isTripActive(int tripRowId, int day) {
+		if (day == -1 || tripRowId < 0 || tripRowId >= tripServices.length)
+			return false;
+		int service = tripServices[tripRowId];
+		return service != -1 && activeServices[day].get(service);
+	}
+
+	/**
+	 * Returns the trips running on a given date
+	 * @param date The date, as {@code yyyyMMdd}
+	 * @return The selection of the rows of trips.txt (see {@link #getTrips()}), or null if the trips file hasn't been given
+	 */
+	public RowSelection getActiveTrips(String date) {
+		if (trips == null)
+			return null;
+		BitSet rows = new BitSet(tripServices.length);
+		int day = getDay(date);
+		if (day != -1) {
+			BitSet services = activeServices[day];
+			for (int service = services.nextSetBit(0); service >= 0 && service < serviceTrips.length; service = services.nextSetBit(service + 1)) {
+				for (int rowId : serviceTrips[service])
+					rows.set(rowId);
+			}
+		}
+		return new RowSelection(rows, tripServices.length);
+	}
+}
@@ -0,0 +1,164 @@
+package i42pc.traindata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>This class represents a single column of the table of a {@link FileData} object, keeping its values as slices of a {@link MappedFile}.</p>
+ * <p>Like {@link DictionaryColumn}, every cell is stored as the int code of its value, but the distinct values are stored as
+ * (position, length) pairs pointing to their bytes in the mapped file: a String is created only the first time a value is read.<br>
+ * Values which aren't a plain slice of the file (for example the ones containing entities) are stored as Strings.</p>
+ * <p>The distinct values are found through a hash table working on the bytes, so no String is needed while reading the file.
+ */
+class SliceColumn extends Column {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NOT_A_SLICE = -1;
+
+	private MappedFile file;
+
+	private int[] codes = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	private long[] positions = new long[INITIAL_CAPACITY];
+	private int[] lengths = new int[INITIAL_CAPACITY];
+	private int[] hashes = new int[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+	private int dictionarySize = 0;
+
+	private int[] table = newTable(INITIAL_CAPACITY * 2);
+
+	/**
+	 * Constructor for this object
+	 * @param file The mapped file containing the values
+	 */
+	public SliceColumn(MappedFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * Adds a new cell at the end of the column, given the position of its value in the mapped file
+	 * @param position The position of the first byte of the value
+	 * @param length The number of bytes of the value
+	 */
+	public void addSlice(long position, int length) {
+		int hash = file.hash(position, length);
+		int slot = spread(hash) & (table.length - 1);
+		while (table[slot] != -1) {
+			int code = table[slot];
+			if (hashes[code] == hash && (positions[code] == NOT_A_SLICE ? file.equals(position, length, values[code].getBytes(StandardCharsets.UTF_8)) : file.equals(position, length, positions[code], lengths[code]))) {
+				addCode(code);
+				return;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		addCode(newEntry(hash, position, length, null));
+	}
+
+	public void add(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int hash = MappedFile.hash(bytes);
+		int code = find(bytes, hash);
+		if (code == -1)
+			code = newEntry(hash, NOT_A_SLICE, bytes.length, value);
+		addCode(code);
+	}
+
+	public int getCode(int row) {
+		return codes[row];
+	}
+
+	public String getValue(int code) {
+		String value = values[code];
+		if (value == null) {
+			value = file.decode(positions[code], lengths[code]);
+			values[code] = value;
+		}
+		return value;
+	}
+
+	public int findCode(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return find(bytes, MappedFile.hash(bytes));
+	}
+
+	public int getDictionarySize() {
+		return dictionarySize;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void trim() {
+		if (codes.length != size)
+			codes = Arrays.copyOf(codes, size);
+	}
+
+	/**
+	 * Finds the code of a value, given its bytes
+	 * @param bytes The utf-8 bytes of the value
+	 * @param hash The hash of the bytes
+	 * @return The code of the value, -1 if it isn't in the dictionary
+	 */
+	private int find(byte[] bytes, int hash) {
+		int slot = spread(hash) & (table.length - 1);
+		while (table[slot] != -1) {
+			int code = table[slot];
+			if (hashes[code] == hash && (positions[code] == NOT_A_SLICE ? Arrays.equals(values[code].getBytes(StandardCharsets.UTF_8), bytes) : file.equals(positions[code], lengths[code], bytes)))
+				return code;
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return -1;
+	}
+
+	private void addCode(int code) {
+		if (size == codes.length)
+			codes = Arrays.copyOf(codes, Math.max(INITIAL_CAPACITY, size * 2));
+		codes[size++] = code;
+	}
+
+	private int newEntry(int hash, long position, int length, String value) {
+		if (dictionarySize == positions.length) {
+			int capacity = dictionarySize * 2;
+			positions = Arrays.copyOf(positions, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		int code = dictionarySize++;
+		positions[code] = position;
+		lengths[code] = length;
+		hashes[code] = hash;
+		values[code] = value;
+		if (dictionarySize * 2 > table.length)
+			rehash();
+		else
+			insert(table, code);
+		return code;
+	}
+
+	private void rehash() {
+		table = newTable(table.length * 2);
+		for (int code = 0; code < dictionarySize; code++) {
+			insert(table, code);
+		}
+	}
+
+	private void insert(int[] table, int code) {
+		int slot = spread(hashes[code]) & (table.length - 1);
+		while (table[slot] != -1) {
+			slot = (slot + 1) & (table.length - 1);
+		}
+		table[slot] = code;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		return table;
+	}
+}
@@ -0,0 +1,85 @@
+package i42pc.traindata;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * <p>This class implements {@link XMLEmitter} through the StAX {@code XMLStreamWriter} of the JDK.</p>
+ * <p>It's the reference implementation: every other emitter must produce the same bytes.
+ */
+public class StaxXMLEmitter implements XMLEmitter {
+	private static final String ENCODING = "utf-8";
+	private static final String VERSION = "1.0";
+
+	private OutputStream out;
+	private XMLStreamWriter writer;
+
+	/**
+	 * Constructor for this object
+	 * @param out The stream the document will be written to
+	 * @throws IOException If the writer can't be created
+	 */
+	public StaxXMLEmitter(OutputStream out) throws IOException {
+		this.out = new BufferedOutputStream(out);
+		try {
+			writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.out, ENCODING);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeStartDocument() throws IOException {
+		try {
+			writer.writeStartDocument(ENCODING, VERSION);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeStartElement(String name) throws IOException {
+		try {
+			writer.writeStartElement(name);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeAttribute(String name, String value) throws IOException {
+		try {
+			writer.writeAttribute(name, value);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeEndElement() throws IOException {
+		try {
+			writer.writeEndElement();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void writeEndDocument() throws IOException {
+		try {
+			writer.writeEndDocument();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void close() throws IOException {
+		try {
+			writer.flush();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		out.close();
+	}
+}
@@ -0,0 +1,302 @@
+package i42pc.traindata;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * <p>This class is the spatial index of the stops, built once from the {@code stop_lat} and {@code stop_lon} columns of stops.txt.</p>
+ * <p>The stops are placed in a uniform grid of cells, about {@value #STOPS_PER_CELL} stops per cell on average, kept in arrays of primitives:
+ * a bounding box query reads only the cells overlapping the box, and a nearest stops query reads the cells in rings around the point,
+ * stopping as soon as no closer stop can be found.<br>
+ * The nearest stops are ranked on a plane where the longitudes are scaled by the cosine of the middle latitude of the stops,
+ * which is accurate for the area of a regional feed; {@link #getDistance(int, double, double)} measures the distance on the surface of the Earth, in meters.
+ * The stops without valid coordinates are ignored.</p>
+ * <p>The index never changes, so it can be used by many threads.</p>
+ */
+public final class StopIndex {
+	public static final String STOPS_FILE = "stops.txt";
+
+	private static final int STOPS_PER_CELL = 4;
+	private static final double EARTH_RADIUS = 6371008.8;
+
+	private final FileData stops;
+	private final int rowCount;
+
+	// the coordinates are projected on a plane, scaling the longitudes by the cosine of the middle latitude
+	private double lonScale = 1;
+	private double minX = 0;
+	private double minY = 0;
+	private double cellSize = 1;
+	private int columns = 1;
+	private int rows = 1;
+
+	// the stops in the cell c are at the positions from cellStarts[c] to cellStarts[c + 1] (excluded)
+	private int[] cellStarts = new int[2];
+	private int[] stopRows = new int[0];
+	private double[] latitudes = new double[0];
+	private double[] longitudes = new double[0];
+
+	/**
+	 * Constructor for this object: it builds the whole index
+	 * @param stops The stops.txt file
+	 */
+	public StopIndex(FileData stops) {
+		this.stops = stops;
+		this.rowCount = stops.getRowCount();
+		int latColumn = stops.getTitleIndex("stop_lat");
+		int lonColumn = stops.getTitleIndex("stop_lon");
+		if (latColumn == -1 || lonColumn == -1)
+			return;
+		
+		// reads the valid coordinates
+		double[] lats = new double[rowCount];
+		double[] lons = new double[rowCount];
+		int[] valid = new int[rowCount];
+		int count = 0;
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int rowId = 0; rowId < rowCount; rowId++) {
+			double lat = coordinate(stops, rowId, latColumn);
+			double lon = coordinate(stops, rowId, lonColumn);
+			if (Double.isNaN(lat) || Double.isNaN(lon) || lat < -90 || lat > 90 || lon < -180 || lon > 180)
+				continue;
+			lats[count] = lat;
+			lons[count] = lon;
+			valid[count++] = rowId;
+			minLat = Math.min(minLat, lat);
+			maxLat = Math.max(maxLat, lat);
+			minLon = Math.min(minLon, lon);
+			maxLon = Math.max(maxLon, lon);
+		}
+		if (count == 0)
+			return;
+		
+		// sizes the grid for about STOPS_PER_CELL stops per cell
+		lonScale = Math.max(0.01, Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+		minX = minLon * lonScale;
+		minY = minLat;
+		double width = Math.max(1e-9, (maxLon - minLon) * lonScale);
+		double height = Math.max(1e-9, maxLat - minLat);
+		cellSize = Math.max(Math.sqrt(width * height * STOPS_PER_CELL / count), Math.max(width, height) / 4096);
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+		
+		// places the stops in their cells
+		int[] stopCells = new int[count];
+		cellStarts = new int[columns * rows + 1];
+		for (int i = 0; i < count; i++) {
+			stopCells[i] = cellY(lats[i]) * columns + cellX(lons[i]);
+			cellStarts[stopCells[i] + 1]++;
+		}
+		for (int cell = 0; cell < columns * rows; cell++) {
+			cellStarts[cell + 1] += cellStarts[cell];
+		}
+		int[] next = Arrays.copyOf(cellStarts, columns * rows);
+		stopRows = new int[count];
+		latitudes = new double[count];
+		longitudes = new double[count];
+		for (int i = 0; i < count; i++) {
+			int position = next[stopCells[i]]++;
+			stopRows[position] = valid[i];
+			latitudes[position] = lats[i];
+			longitudes[position] = lons[i];
+		}
+	}
+
+	private static double coordinate(FileData file, int rowId, int column) {
+		if (column >= file.getCellCount(rowId))
+			return Double.NaN;
+		if (file.getColumnType(column) != ColumnType.TEXT)
+			return file.getDouble(rowId, column);
+		try {
+			return Double.parseDouble(file.getValue(rowId, column).trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private int cellX(double lon) {
+		return toCell(lon * lonScale - minX, columns);
+	}
+
+	private int cellY(double lat) {
+		return toCell(lat - minY, rows);
+	}
+
+	/**
+	 * Returns the cell containing an offset from the corner of the grid, along one of its sides
+	 * @param offset The offset on the plane
+	 * @param size The number of cells of the side
+	 * @return The position of the cell, the nearest one if the offset is outside the grid
+	 */
+	private int toCell(double offset, int size) {
+		return (int) Math.max(0, Math.min(size - 1, Math.floor(offset / cellSize)));
+	}
+
+	/**
+	 * Returns the stops file used by this index
+	 * @return The stops.txt file
+	 */
+	public FileData getStops() {
+		return stops;
+	}
+
+	/**
+	 * Returns the number of stops in the index
+	 * @return The number of stops, without the ones with invalid coordinates
+	 */
+	public int getStopCount() {
+		return stopRows.length;
+	}
+
+	/**
+	 * Returns the stops inside a bounding box, borders included
+	 * @param minLat The lowest latitude
+	 * @param minLon The lowest longitude
+	 * @param maxLat The highest latitude
+	 * @param maxLon The highest longitude
+	 * @return The selection of the rows of stops.txt (see {@link #getStops()})
+	 */
+	public RowSelection getStopsInBox(double minLat, double minLon, double maxLat, double maxLon) {
+		BitSet out = new BitSet(rowCount);
+		if (stopRows.length > 0 && minLat <= maxLat && minLon <= maxLon) {
+			int fromX = cellX(minLon), toX = cellX(maxLon);
+			int fromY = cellY(minLat), toY = cellY(maxLat);
+			for (int y = fromY; y <= toY; y++) {
+				for (int cell = y * columns + fromX; cell <= y * columns + toX; cell++) {
+					for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+						if (latitudes[i] >= minLat && latitudes[i] <= maxLat && longitudes[i] >= minLon && longitudes[i] <= maxLon)
+							out.set(stopRows[i]);
+					}
+				}
+			}
+		}
+		return new RowSelection(out, rowCount);
+	}
+
+	/**
+	 * Returns the stops nearest to a point
+	 * @param lat The latitude of the point
+	 * @param lon The longitude of the point
+	 * @param k The maximum number of stops
+	 * @return The rows of stops.txt (see {@link #getStops()}), from the nearest stop
+	 */
+	public int[] getNearestStops(double lat, double lon, int k) {
+		k = Math.min(k, stopRows.length);
+		if (k <= 0)
+			return new int[0];
+		// the best positions found so far, sorted by their distance on the plane
+		int[] best = new int[k];
+		double[] bestDistances = new double[k];
+		int found = 0;
+		double x = lon * lonScale;
+		// the rings are centered on the cell of the grid nearest to the point, so a point far outside the grid costs like one on its border
+		int centerX = cellX(lon);
+		int centerY = cellY(lat);
+		int maxRing = Math.max(Math.max(centerX, columns - 1 - centerX), Math.max(centerY, rows - 1 - centerY));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// every stop outside the rings read so far is farther than this
+			if (found == k && ring > 0) {
+				double bound = distanceToUnread(x, lat, centerX, centerY, ring);
+				if (bound * bound > bestDistances[k - 1])
+					break;
+			}
+			int fromY = Math.max(0, centerY - ring);
+			int toY = Math.min(rows - 1, centerY + ring);
+			int fromX = Math.max(0, centerX - ring);
+			int toX = Math.min(columns - 1, centerX + ring);
+			if (found == k) {
+				// skips the cells farther than the stops found, in either direction
+				double radius = Math.sqrt(bestDistances[k - 1]);
+				fromY = Math.max(fromY, toCell(lat - radius - minY, rows));
+				toY = Math.min(toY, toCell(lat + radius - minY, rows));
+				fromX = Math.max(fromX, toCell(x - radius - minX, columns));
+				toX = Math.min(toX, toCell(x + radius - minX, columns));
+			}
+			for (int y = fromY; y <= toY; y++) {
+				boolean edge = (y == centerY - ring || y == centerY + ring);
+				for (int cx = fromX; cx <= toX; cx++) {
+					// inside the ring, only its first and last columns are read
+					if (!edge && cx != centerX - ring && cx != centerX + ring) {
+						if (centerX + ring > toX)
+							break;
+						cx = centerX + ring;
+					}
+					int cell = y * columns + cx;
+					for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+						double dx = longitudes[i] * lonScale - x;
+						double dy = latitudes[i] - lat;
+						double distance = dx * dx + dy * dy;
+						if (found == k && distance >= bestDistances[k - 1])
+							continue;
+						// inserts the stop keeping the best ones sorted
+						int position = (found < k) ? found++ : k - 1;
+						while (position > 0 && bestDistances[position - 1] > distance) {
+							best[position] = best[position - 1];
+							bestDistances[position] = bestDistances[position - 1];
+							position--;
+						}
+						best[position] = i;
+						bestDistances[position] = distance;
+					}
+				}
+			}
+		}
+		int[] out = new int[found];
+		for (int i = 0; i < found; i++) {
+			out[i] = stopRows[best[i]];
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the distance on the plane from a point to the cells of the grid not read yet, outside the rings before the given one
+	 * @return The distance, or infinity if every cell has been read
+	 */
+	private double distanceToUnread(double x, double y, int centerX, int centerY, int ring) {
+		// the unread cells are in the strips of the grid at the left, at the right, below and above the rings read
+		double bound = Double.POSITIVE_INFINITY;
+		if (centerX - ring >= 0)
+			bound = Math.min(bound, distanceToCells(x, y, 0, 0, centerX - ring, rows - 1));
+		if (centerX + ring < columns)
+			bound = Math.min(bound, distanceToCells(x, y, centerX + ring, 0, columns - 1, rows - 1));
+		if (centerY - ring >= 0)
+			bound = Math.min(bound, distanceToCells(x, y, 0, 0, columns - 1, centerY - ring));
+		if (centerY + ring < rows)
+			bound = Math.min(bound, distanceToCells(x, y, 0, centerY + ring, columns - 1, rows - 1));
+		return bound;
+	}
+
+	/**
+	 * Returns the distance on the plane from a point to a rectangle of cells, borders included
+	 */
+	private double distanceToCells(double x, double y, int fromX, int fromY, int toX, int toY) {
+		double dx = Math.max(0, Math.max((minX + fromX * cellSize) - x, x - (minX + (toX + 1) * cellSize)));
+		double dy = Math.max(0, Math.max((minY + fromY * cellSize) - y, y - (minY + (toY + 1) * cellSize)));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Returns the distance between a stop and a point
+	 * @param stopRowId The position of the stop in stops.txt
+	 * @param lat The latitude of the point
+	 * @param lon The longitude of the point
+	 * @return The distance in meters, or NaN if the stop has no valid coordinates
+	 */
+	public double getDistance(int stopRowId, double lat, double lon) {
+		double stopLat = coordinate(stops, stopRowId, stops.getTitleIndex("stop_lat"));
+		double stopLon = coordinate(stops, stopRowId, stops.getTitleIndex("stop_lon"));
+		return distance(stopLat, stopLon, lat, lon);
+	}
+
+	/**
+	 * Returns the distance between two points on the surface of the Earth (haversine formula)
+	 * @return The distance in meters
+	 */
+	static double distance(double lat1, double lon1, double lat2, double lon2) {
+		double dLat = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(lon2 - lon1);
+		double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+		return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+}
@@ -1,10 +1,17 @@
 package i42pc.traindata;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class TrainMain {
 	public static final String FOLDER_PATH = "./input/";
+	public static final int FRAGMENT_CACHE_SIZE = 32 << 20; // bytes, shared among the threads of a parallel export
+	public static final String[] EXERCISE_FILE_NAMES = {"one", "two", "three"};
+	private static final String[] BATCH_VALUE_OPTIONS = {"-input", "-snapshot", "-date", "-region", "-column-type", "-metrics-json"}; // the batch options followed by a value
 	
 	public static final String MENU_MAIN_TITLE = "Welcome to the Train Data Manager. What would you like to do?";
 	public static final String[] MENU_MAIN_OPTIONS = {"Set the starting file",
@@ -16,6 +23,10 @@ public class TrainMain {
 									};
 
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.exit(runBatch(args) ? 0 : 1);
+			return;
+		}
 		String printMessage = null;
 		String outFileName = null;
 		File test;
@@ -29,12 +40,16 @@ public class TrainMain {
 			
 			test = new File(folderPath);
 		} while (!test.isDirectory() && !folderPath.equals("no")); 
+		String snapshotPath = Utility.getString("Please insert the path for the snapshot of the files, to read them faster the next time (use \"no\" for no snapshot): ");
 		System.out.println("Reading all of the files... Please wait");
 		
 		FileList fl = new FileList(folderPath.equals("no") ? FOLDER_PATH : folderPath);
-		fl.readAllFiles();
+		if (!snapshotPath.equals("no"))
+			fl.setSnapshotFile(snapshotPath);
+		fl.setMetrics(newMetrics());
+		fl.readAllFiles(Runtime.getRuntime().availableProcessors());
 		
-		final String[] OPTION_FIRST = {"Use the custom printing mode", "Write to file the first point of the exercise","Write to file the second point of the exercise", "Write to file the third point of the exercise"};
+		final String[] OPTION_FIRST = {"Use the custom printing mode", "Write to file the first point of the exercise","Write to file the second point of the exercise", "Write to file the third point of the exercise", "Write to file all of the points of the exercise at once"};
 		Menu firstMenu = new Menu("Which mode would you like to use?", OPTION_FIRST);
 		boolean looping;
 		int option = firstMenu.choose();
@@ -78,105 +93,236 @@ public class TrainMain {
 					if (outFileName != null)
 						System.out.println("The inserted name is not valid.");
 					outFileName = Utility.getString("Insert the file name for the output xml file (.xml is not needed): ");
-					printMessage = String.format("Printing the custom made file to %s.\nPlease wait (this could take some time)", outFileName);
+					printMessage = String.format("Printing the custom made file to %s.", outFileName);
 				} while (outFileName.indexOf('.') != -1);
 				break;
 			case 5: // help
 				break;
 			}
 		}
-		ArrayList<String> validTitles = new ArrayList<String>();
+		if (option == OPTION_FIRST.length - 1) { // all of the points
+			ArrayList<ExportProfile> profiles = new ArrayList<ExportProfile>();
+			for (int point = 1; point <= EXERCISE_FILE_NAMES.length; point++) {
+				profiles.add(exerciseProfile(point));
+			}
+			System.out.println("Printing all of the points of the exercise to ./output/.");
+			System.out.println(ExportProfile.exportAll(fl, profiles, FRAGMENT_CACHE_SIZE, new ConsoleProgressListener()).isEmpty() ? "The files were successfully printed. The file paths are ./output/one.xml, ./output/two.xml and ./output/three.xml" : "There's been an error while printing the files.");
+			return;
+		}
+		if (option != 0) {
+			outFileName = EXERCISE_FILE_NAMES[option - 1];
+			System.out.println(String.format("Printing the point %d of the exercise to %s.xml.", option, outFileName));
+			System.out.println(exerciseProfile(option).export(fl, FRAGMENT_CACHE_SIZE, Runtime.getRuntime().availableProcessors(), new ConsoleProgressListener()) ? "The file was successfully printed. The file path is ./output/" + outFileName + ".xml" : "There's been an error while printing the file.");
+			return;
+		}
 		
-		switch (option) {
-		case 1:
-			outFileName = "one";
-			fl.setStartingFile("trips.txt");
-			fl.getStartingFile().setRowTag("service_id");
-			validTitles.add("service_id");
-			validTitles.add("trip_id");
-			validTitles.add("route_id");
-			fl.getStartingFile().setValidTitles(validTitles);
+		String outPath = "./output/" + outFileName + ".xml";
+		XMLFileWriter fw = new XMLFileWriter(fl, outPath);
+		fw.enableFragmentCache(FRAGMENT_CACHE_SIZE);
+		fw.setProgressListener(new ConsoleProgressListener());
+		System.out.println(printMessage);
+		System.out.println(fw.printAll(rootTag, Runtime.getRuntime().availableProcessors()) ? "The file was successfully printed. The file path is ./output/" + outFileName + ".xml" : "There's been an error while printing the file.");
+		
+	}
 
-			fl.addFileLink(fl.getStartingFileName(), "trip_id", "stop_times.txt", "trip_id", null);
-			fl.addFileLink(fl.getStartingFileName(), "route_id", "routes.txt", "route_id", "#NO#PRINT#");
-			
-			validTitles.clear();
-			validTitles.add("arrival_time");
-			validTitles.add("departure_time");
-			fl.getFile("stop_times.txt").setValidTitles(validTitles);
-			fl.getFile("stop_times.txt").setRowTag("stop_id");
-			break;
+	/**
+	 * Returns the profile of a point of the exercise (the same as the files in ./profiles/)
+	 * @param point The point of the exercise, from 1 to 3
+	 * @return The profile writing the point to ./output/
+	 */
+	private static ExportProfile exerciseProfile(int point) {
+		ExportProfile profile = new ExportProfile(EXERCISE_FILE_NAMES[point - 1]);
+		profile.setOutputPath("./output/" + EXERCISE_FILE_NAMES[point - 1] + ".xml");
+		profile.setStartingFile("trips.txt");
+		profile.setRowTag("trips.txt", "service_id");
+		profile.setRowTag("stop_times.txt", "stop_id");
+		switch (point) {
+		case 1:
 		case 2:
-			outFileName = "two";
-			fl.setStartingFile("trips.txt");
-			fl.getStartingFile().setRowTag("service_id");
-			validTitles.add("service_id");
-			validTitles.add("trip_id");
-			validTitles.add("route_id");
-			fl.getStartingFile().setValidTitles(validTitles);
-			fl.addSearchLink(fl.getStartingFileName(), "service_id", "calendar_dates.txt", "service_id");
-			fl.addFileLink(fl.getStartingFileName(), "trip_id", "stop_times.txt", "trip_id", null);
-			fl.addFileLink(fl.getStartingFileName(), "route_id", "routes.txt", "route_id", "#NO#PRINT#");
-			
-			validTitles.clear();
-			validTitles.add("arrival_time");
-			validTitles.add("departure_time");
-			fl.getFile("stop_times.txt").setValidTitles(validTitles);
-			fl.getFile("stop_times.txt").setRowTag("stop_id");
+			profile.setValidTitles("trips.txt", new ArrayList<String>(Arrays.asList("service_id", "trip_id", "route_id")));
+			profile.setValidTitles("stop_times.txt", new ArrayList<String>(Arrays.asList("arrival_time", "departure_time")));
+			if (point == 2)
+				profile.addSearchLink("trips.txt", "service_id", "calendar_dates.txt", "service_id");
+			profile.addFileLink("trips.txt", "trip_id", "stop_times.txt", "trip_id", null);
+			profile.addFileLink("trips.txt", "route_id", "routes.txt", "route_id", "#NO#PRINT#");
 			break;
 		case 3:
-			fl.setStartingFile("trips.txt");
-			fl.getStartingFile().setRowTag("service_id");
-			fl.addFileLink(fl.getStartingFileName(), "trip_id", "stop_times.txt", "trip_id", null);
-			fl.addFileLink(fl.getStartingFileName(), "route_id", "routes.txt", "route_id", "#NO#PRINT#");
-			fl.addFileLink("routes.txt", "agency_id", "agency.txt", "agency_id", "#NO#PRINT#");
-			fl.addFileLink("stop_times.txt", "stop_id", "stops.txt", "stop_id", "stop_data");
-			fl.addFileLink(fl.getStartingFileName(), "service_id", "calendar.txt", "service_id", "calendar");
-			fl.addFileLink("calendar.txt", "service_id", "calendar_dates.txt", "service_id", "date");
-			
-			fl.getFile("stop_times.txt").setRowTag("stop_id");
+			profile.setRowTag("routes.txt", "route_id");
+			profile.setRowTag("calendar_dates.txt", "date");
+			profile.setHiddenTitles("calendar_dates.txt", new ArrayList<String>(Arrays.asList("service_id")));
+			profile.setHiddenTitles("stops.txt", new ArrayList<String>(Arrays.asList("stop_id")));
+			profile.setHiddenTitles("stop_times.txt", new ArrayList<String>(Arrays.asList("trip_id")));
+			profile.addFileLink("trips.txt", "trip_id", "stop_times.txt", "trip_id", null);
+			profile.addFileLink("trips.txt", "route_id", "routes.txt", "route_id", "#NO#PRINT#");
+			profile.addFileLink("routes.txt", "agency_id", "agency.txt", "agency_id", "#NO#PRINT#");
+			profile.addFileLink("stop_times.txt", "stop_id", "stops.txt", "stop_id", "stop_data");
+			profile.addFileLink("trips.txt", "service_id", "calendar.txt", "service_id", "calendar");
+			profile.addFileLink("calendar.txt", "service_id", "calendar_dates.txt", "service_id", "date");
+			break;
+		}
+		return profile;
+	}
 
-			fl.getFile("routes.txt").setRowTag("route_id");
+	/**
+	 * Creates the object collecting the metrics of the session, published as a JMX MBean (see {@link ExportMetrics#register()})
+	 * @return The metrics object
+	 */
+	private static ExportMetrics newMetrics() {
+		ExportMetrics metrics = new ExportMetrics();
+		metrics.register();
+		return metrics;
+	}
 
-			
-			validTitles.clear();
-			validTitles = fl.getFile("calendar_dates.txt").getTitles();
-			validTitles.remove("service_id");
-			fl.getFile("calendar_dates.txt").setValidTitles(validTitles);
+	/**
+	 * Parses the declaration of the type of a column, like {@code stop_times.txt:stop_sequence=INTEGER}
+	 * @param declaration The declaration, as {@code <file>:<title>=<type>}
+	 * @return The name of the file, the title and the name of the type, or null if the declaration isn't valid
+	 */
+	private static String[] parseColumnType(String declaration) {
+		int colon = declaration.indexOf(':');
+		int equals = declaration.lastIndexOf('=');
+		if (colon <= 0 || equals <= colon + 1)
+			return null;
+		String type = declaration.substring(equals + 1);
+		for (ColumnType columnType : ColumnType.values()) {
+			if (columnType.name().equals(type))
+				return new String[] {declaration.substring(0, colon), declaration.substring(colon + 1, equals), type};
+		}
+		return null;
+	}
 
-			fl.getFile("calendar_dates.txt").setRowTag("date");
-			
-			
-			validTitles.clear();
-			validTitles = fl.getFile("stops.txt").getTitles();
-			validTitles.remove("stop_id");
-			fl.getFile("stops.txt").setValidTitles(validTitles);
-			
-			
-			validTitles.clear();
-			validTitles = fl.getFile("stop_times.txt").getTitles();
-			validTitles.remove("trip_id");
-			fl.getFile("stop_times.txt").setValidTitles(validTitles);
-			
-			outFileName = "three";
-			break;
+	/**
+	 * Runs the exports described by some profiles (see {@link ExportProfile}), without any console input
+	 * The files are read only once, then all of the profiles are exported together (see {@link ExportProfile#exportAll(FileList, List, int)})
+	 * Usage: {@code TrainMain [-input <folder>] [-snapshot <file>] [-date <yyyyMMdd>] [-region <minLat,minLon,maxLat,maxLon>] [-typed] [-column-type <file>:<title>=<type>] [-progress] [-metrics] [-metrics-json <file>] <profile.properties> [<profile.properties> ...]}<br>
+	 * With {@code -snapshot} the files are read through a snapshot kept in that file (see {@link FileList#setSnapshotFile(String)})<br>
+	 * With {@code -date} every profile exports only the trips running on that day (see {@link ExportProfile#setServiceDate(String)}),
+	 * with {@code -region} only the trips stopping in that region (see {@link ExportProfile#setRegion(double, double, double, double)}),
+	 * with {@code -typed} the type of every column is found automatically (see {@link FileList#setColumnTypeInference(boolean)}),
+	 * with {@code -column-type} the type of a column is declared, like {@code stop_times.txt:stop_sequence=INTEGER} (see {@link FileList#setColumnType(String, String, ColumnType)}),
+	 * with {@code -progress} the progress of the exports is printed while they run (see {@link ConsoleProgressListener}),
+	 * with {@code -metrics} the summary of the metrics is printed at the end, with {@code -metrics-json} the metrics are written to a JSON file (see {@link ExportMetrics})
+	 * @param args The arguments of the program
+	 * @return True if every export is successful, false otherwise
+	 */
+	private static boolean runBatch(String[] args) {
+		String folderPath = FOLDER_PATH;
+		String snapshotPath = null;
+		boolean printProgress = false;
+		boolean printMetrics = false;
+		String metricsPath = null;
+		String serviceDate = null;
+		double[] region = null;
+		boolean inferColumnTypes = false;
+		ArrayList<String[]> columnTypes = new ArrayList<String[]>();
+		ArrayList<ExportProfile> profiles = new ArrayList<ExportProfile>();
+		for (int i = 0; i < args.length; i++) {
+			if (Arrays.asList(BATCH_VALUE_OPTIONS).contains(args[i]) && i + 1 == args.length) {
+				System.out.println("Error: missing value for " + args[i]);
+				return false;
+			}
+			if (args[i].equals("-input")) {
+				folderPath = args[++i];
+				continue;
+			}
+			if (args[i].equals("-snapshot")) {
+				snapshotPath = args[++i];
+				continue;
+			}
+			if (args[i].equals("-date")) {
+				serviceDate = args[++i];
+				if (!ServiceCalendar.isDate(serviceDate)) {
+					System.out.println("Error: " + serviceDate + " is not a date as yyyyMMdd");
+					return false;
+				}
+				continue;
+			}
+			if (args[i].equals("-region")) {
+				region = ExportProfile.parseRegion(args[++i]);
+				if (region == null) {
+					System.out.println("Error: " + args[i] + " is not a region as minLat,minLon,maxLat,maxLon");
+					return false;
+				}
+				continue;
+			}
+			if (args[i].equals("-typed")) {
+				inferColumnTypes = true;
+				continue;
+			}
+			if (args[i].equals("-column-type")) {
+				String[] columnType = parseColumnType(args[++i]);
+				if (columnType == null) {
+					System.out.println("Error: " + args[i] + " is not a column type as <file>:<title>=<type>, with type one of " + Arrays.toString(ColumnType.values()));
+					return false;
+				}
+				columnTypes.add(columnType);
+				continue;
+			}
+			if (args[i].equals("-progress")) {
+				printProgress = true;
+				continue;
+			}
+			if (args[i].equals("-metrics")) {
+				printMetrics = true;
+				continue;
+			}
+			if (args[i].equals("-metrics-json")) {
+				metricsPath = args[++i];
+				continue;
+			}
+			try {
+				profiles.add(ExportProfile.load(new File(args[i])));
+			} catch (IOException e) {
+				System.out.println("Error: " + e.getLocalizedMessage());
+				return false;
+			}
+		}
+		if (profiles.isEmpty()) {
+			System.out.println("Usage: TrainMain [-input <folder>] [-snapshot <file>] [-date <yyyyMMdd>] [-region <minLat,minLon,maxLat,maxLon>] [-typed] [-column-type <file>:<title>=<type>] [-progress] [-metrics] [-metrics-json <file>] <profile.properties> [<profile.properties> ...]");
+			return false;
+		}
+		if (!new File(folderPath).isDirectory()) {
+			System.out.println("Error: " + folderPath + " is not a folder");
+			return false;
 		}
-		if (option != 0)
-			printMessage = String.format("Printing the point %d of the exercise to %s.xml.\nThis might take up to a couple of minutes", option, outFileName);
-		
-		
-		
-		
-		
-		
-		/*
 		
-		*/
-		String outPath = "./output/" + outFileName + ".xml";
-		XMLFileWriter fw = new XMLFileWriter(fl, outPath);
-		System.out.println(printMessage);
-		System.out.println(fw.printAll(rootTag) ? "The file was successfully printed. The file path is ./output/" + outFileName + ".xml" : "There's been an error while printing the file.");
+		for (ExportProfile profile : profiles) {
+			if (serviceDate != null)
+				profile.setServiceDate(serviceDate);
+			if (region != null)
+				profile.setRegion(region[0], region[1], region[2], region[3]);
+		}
 		
+		FileList fl = new FileList(folderPath);
+		fl.setSnapshotFile(snapshotPath);
+		fl.setColumnTypeInference(inferColumnTypes);
+		for (String[] columnType : columnTypes) {
+			fl.setColumnType(columnType[0], columnType[1], ColumnType.valueOf(columnType[2]));
+		}
+		ExportMetrics metrics = newMetrics();
+		fl.setMetrics(metrics);
+		if (!fl.readAllFiles(Runtime.getRuntime().availableProcessors())) {
+			System.out.println("Error: the files in " + folderPath + " can't be read");
+			return false;
+		}
+		ArrayList<ExportProfile> failed = ExportProfile.exportAll(fl, profiles, FRAGMENT_CACHE_SIZE, printProgress ? new ConsoleProgressListener() : null);
+		for (ExportProfile profile : failed) {
+			if (profile.getInvalidSetting() != null)
+				System.out.println("Error: " + profile.getName() + ": invalid setting " + profile.getInvalidSetting());
+			else
+				System.out.println("Error: " + profile.getName() + ": can't write " + profile.getOutputPath());
+		}
+		if (printMetrics)
+			System.out.print(metrics);
+		if (metricsPath != null) {
+			try {
+				Files.write(new File(metricsPath).toPath(), metrics.toJson().getBytes(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				System.out.println("Error: " + e.getLocalizedMessage());
+				return false;
+			}
+		}
+		return failed.isEmpty();
 	}
 
 	private static ArrayList<String> chooseValidTitles(String message, ArrayList<String> validTitles, ArrayList<String> titles, FileList fileList) {
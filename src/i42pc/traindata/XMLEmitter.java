@@ -0,0 +1,53 @@
+package i42pc.traindata;
+
+import java.io.IOException;
+
+/**
+ * <p>This interface represents the backend used by {@link XMLFileWriter} to write the xml output.</p>
+ * <p>The output is made only of start tags, attributes and end tags, with the following rules:<br>
+ * <ul><li>Attributes must be written right after the start tag they belong to</li>
+ * <li>An element is always closed with an end tag, even if it's empty ({@code <tag id="1"></tag>})</li>
+ * <li>The whole document is written with the utf-8 encoding</li></ul>
+ * <p>Available implementations are {@link StaxXMLEmitter} (the reference one) and {@link FastXMLEmitter}
+ */
+public interface XMLEmitter {
+
+	/**
+	 * Writes the xml declaration
+	 * @throws IOException If the output can't be written
+	 */
+	public void writeStartDocument() throws IOException;
+
+	/**
+	 * Writes the start tag of a new element
+	 * @param name The name of the element
+	 * @throws IOException If the output can't be written
+	 */
+	public void writeStartElement(String name) throws IOException;
+
+	/**
+	 * Writes an attribute for the last started element
+	 * @param name The name of the attribute
+	 * @param value The value of the attribute, which will be escaped if needed
+	 * @throws IOException If the output can't be written
+	 */
+	public void writeAttribute(String name, String value) throws IOException;
+
+	/**
+	 * Writes the end tag of the last open element
+	 * @throws IOException If the output can't be written
+	 */
+	public void writeEndElement() throws IOException;
+
+	/**
+	 * Closes all of the elements still open
+	 * @throws IOException If the output can't be written
+	 */
+	public void writeEndDocument() throws IOException;
+
+	/**
+	 * Writes all of the pending output and closes the underlying stream
+	 * @throws IOException If the output can't be written
+	 */
+	public void close() throws IOException;
+}
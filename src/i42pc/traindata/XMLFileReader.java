@@ -2,6 +2,8 @@ package i42pc.traindata;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
@@ -15,7 +17,9 @@ import javax.xml.stream.XMLStreamReader;
  * <li>Every row must contain all the values inside of title tags.</li>
  * <li>The title tags must be all present (implicit tags are not supported)</li>
  * <li>For empty data values, both self-closing tags ({@code <title />}) and opening and closing tags ({@code <title> </title>}) are supported</li></ul>
- * <p>The reading methods were adapted from {@link https://docs.oracle.com/javase/tutorial/jaxp/stax/example.html}
+ * <p>The reading methods were adapted from {@link https://docs.oracle.com/javase/tutorial/jaxp/stax/example.html}</p>
+ * <p>By default, the file is first read with a {@link FlatTableParser}, which is much faster but accepts only the plain structure above:
+ * if it fails, the file is read again with the generic StAX reader.
  */
 public class XMLFileReader {
 	
@@ -23,7 +27,10 @@ public class XMLFileReader {
 	private static final String ROW_TAG = "row";
 	
 	private String filePath = null;
+	private boolean fastParsing = true;
+	private boolean memoryMapped = false;
 	private XMLInputFactory xmlif;
+	private InputStream inputStream;
     private XMLStreamReader xmlr;
     private FileData fileData;
     
@@ -76,6 +83,24 @@ public class XMLFileReader {
 		return (this.filePath != null);
 	}
 	
+	/**
+	 * <p>Sets whether the file should be read with the fast {@link FlatTableParser} before trying the generic StAX reader (the default) or only with the StAX reader.
+	 * @param fastParsing True to try the fast parser first, false to use only the StAX reader
+	 */
+	public void setFastParsing(boolean fastParsing) {
+		this.fastParsing = fastParsing;
+	}
+	
+	/**
+	 * <p>Sets whether the file should be memory-mapped (false by default).</p>
+	 * <p>In this mode the values read by the fast parser are kept as slices of the mapped file, and Strings are created only when they are needed.
+	 * It has no effect if the file is read with the StAX reader.
+	 * @param memoryMapped True to map the file in memory, false otherwise
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+	
 	/**
 	 * <p>Initializes the process of reading the files
 	 * @return True if the operation is successful, false otherwise
@@ -83,7 +108,8 @@ public class XMLFileReader {
 	private boolean init() {
 		try {
 			xmlif = XMLInputFactory.newInstance();
-	        xmlr = xmlif.createXMLStreamReader(filePath,new FileInputStream(filePath));
+	        inputStream = new FileInputStream(filePath);
+	        xmlr = xmlif.createXMLStreamReader(filePath, inputStream);
 		} catch (Exception e) {
 			return false;
 		}
@@ -187,12 +213,55 @@ public class XMLFileReader {
 	
 	/**
 	 * <p>Reads all of the data in the xml file and stores it privately.</p>
-	 * <p>See {@link #returnData()} to retrieve all of the data in the form of a {@code FileData} object
+	 * <p>See {@link #returnData()} to retrieve all of the data in the form of a {@code FileData} object</p>
+	 * <p>If the reading thread gets interrupted, the reading stops and is considered unsuccessful.
 	 * @return True if the whole operation is successful, false otherwise
 	 */
 	public boolean readAll() {
+		if (fastParsing && readFlatTable())
+			return true;
+		if (Thread.currentThread().isInterrupted())
+			return false;
 		this.init();
-		while (this.next() && !finished);
+		while (this.next() && !finished && !Thread.currentThread().isInterrupted());
+		try {
+			if (inputStream != null)
+				inputStream.close();
+		} catch (IOException e) {
+			// the data has already been read
+		}
+		return finished;
+	}
+	
+	/**
+	 * <p>Tries to read the whole file with a {@link FlatTableParser}
+	 * @return True if the whole operation is successful, false otherwise
+	 */
+	private boolean readFlatTable() {
+		if (filePath == null)
+			return false;
+		InputStream in = null;
+		try {
+			initFile();
+			if (memoryMapped) {
+				MappedFile mappedFile = MappedFile.map(new File(filePath));
+				fileData.setMappedFile(mappedFile);
+				finished = new FlatTableParser(mappedFile, fileData).parse();
+			}
+			else {
+				in = new FileInputStream(filePath);
+				finished = new FlatTableParser(in, fileData).parse();
+			}
+		} catch (IOException e) {
+			finished = false;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+				// the data has already been read
+			}
+		}
 		return finished;
 	}
 	
@@ -1,11 +1,20 @@
 package i42pc.traindata;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
-import java.util.ArrayList;
-import java.util.Arrays;
-
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <h1 style="font-size: 100px;">WIP</h1>
@@ -13,29 +22,242 @@ import javax.xml.stream.XMLStreamWriter;
 public class XMLFileWriter {	
 	private static final String ATT1 = "id";
 	private static final String ATT2 = "value";
-	private static final String DEFAULT_ROW_TITLE = "row";	
-	private static final String NOT_PRINTING_ROW = "#NO#PRINT#";
+	
+	private static final int MAX_FRAGMENT_SIZE = 1 << 16;
+	private static final int CHUNK_ROWS = 256;
+	private static final int MAX_PENDING_CHUNKS = 64;
+	public static final long DEFAULT_PROGRESS_INTERVAL = 500;
 	
 	private FileList fileList;
-	private XMLOutputFactory output;
-	private XMLStreamWriter writer;
+	private XMLEmitter writer;
+	private FragmentCache fragmentCache = null;
+	private int fragmentCacheSize = 0;
+	
+	// metrics, kept locally and added to the metrics object when the export ends
+	private ExportMetrics metrics;
+	private String outputName;
+	private CountingOutputStream byteCounter = null;
+	private long startNanos = System.nanoTime();
+	private long elementCount = 0;
+	private long filteredLookups = 0;
+	private long searchChecks = 0;
+	private long rowsFilteredOut = 0;
+	private HashMap<String, long[]> linkTraversals = new HashMap<String, long[]>();
+	
+	// the rows to be written for some files, every other row of those files is skipped
+	private HashMap<FileData, RowSelection> rowSelections = new HashMap<FileData, RowSelection>();
+	
+	private ProgressListener progressListener = null;
+	private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+	private ProgressTracker progress = null;
 
 	/**
-	 * Constructor for this object
+	 * Constructor for this object: the file will be written through a {@link FastXMLEmitter}
 	 * @param fileList The FileList object containing all of the data to be written to file
 	 * @param filePath The path of the resulting file
 	 */
 	public XMLFileWriter(FileList fileList, String filePath) {
 		this.fileList = fileList;
-		output = XMLOutputFactory.newInstance();
+		this.metrics = fileList.getMetrics();
+		this.outputName = filePath;
+		try {
+			byteCounter = new CountingOutputStream(new FileOutputStream(filePath));
+			writer = new FastXMLEmitter(byteCounter);
+			writer.writeStartDocument();
+		} catch (Exception e) {
+			System.out.println("There's been an error");
+		}
+	}
+	
+	/**
+	 * Constructor for this object, allowing to choose the backend writing the file
+	 * With this constructor, the bytes written aren't counted by the metrics
+	 * @param fileList The FileList object containing all of the data to be written to file
+	 * @param emitter The emitter writing the resulting file (for example a {@link StaxXMLEmitter})
+	 */
+	public XMLFileWriter(FileList fileList, XMLEmitter emitter) {
+		this.fileList = fileList;
+		this.writer = emitter;
+		this.metrics = fileList.getMetrics();
+		this.outputName = emitter.getClass().getSimpleName();
 		try {
-			writer = output.createXMLStreamWriter(new FileOutputStream(filePath), "utf-8");
-			writer.writeStartDocument("utf-8","1.0");
+			writer.writeStartDocument();
 		} catch (Exception e) {
 			System.out.println("There's been an error");
 		}
 	}
 	
+	/**
+	 * Constructor for the writer of a chunk of rows (see {@link #printAll(String, ExecutorService)}): it doesn't write the xml declaration
+	 * @param fileList The FileList object containing all of the data to be written
+	 * @param emitter The emitter writing the chunk
+	 * @param fragmentCache The cache of the linked subtrees, null for none
+	 * @param metrics The object collecting the metrics, null for none
+	 */
+	private XMLFileWriter(FileList fileList, FastXMLEmitter emitter, FragmentCache fragmentCache, ExportMetrics metrics) {
+		this.fileList = fileList;
+		this.writer = emitter;
+		this.fragmentCache = fragmentCache;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets the object collecting the metrics of the export: by default, it's the one of the FileList (see {@link FileList#setMetrics(ExportMetrics)})
+	 * The metrics are added to it when the export ends
+	 * @param metrics The metrics object, null to disable the metrics
+	 */
+	public void setMetrics(ExportMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets the listener receiving the progress of {@link #printAll(String)}, called at most every {@value #DEFAULT_PROGRESS_INTERVAL} milliseconds
+	 * @param listener The listener, null for none
+	 */
+	public void setProgressListener(ProgressListener listener) {
+		setProgressListener(listener, DEFAULT_PROGRESS_INTERVAL);
+	}
+	
+	/**
+	 * Sets the listener receiving the progress of {@link #printAll(String)}
+	 * @param listener The listener, null for none
+	 * @param intervalMillis The minimum time between two progress calls, in milliseconds
+	 */
+	public void setProgressListener(ProgressListener listener, long intervalMillis) {
+		this.progressListener = listener;
+		this.progressInterval = intervalMillis;
+	}
+	
+	/**
+	 * <p>Restricts the rows of a file to be written, wherever the file appears (as starting file or as linked file): the other rows are skipped along with their linked subtrees.</p>
+	 * <p>The fragment cache keeps working, as a linked subtree is always written in the same way during the export.
+	 * @param file The file to be restricted
+	 * @param rows The rows of the file to be written, null to write every row again
+	 */
+	public void setRowSelection(FileData file, RowSelection rows) {
+		if (rows == null)
+			rowSelections.remove(file);
+		else
+			rowSelections.put(file, rows);
+	}
+	
+	/**
+	 * <p>Restricts the export to the slice of a single day: only the trips running on that day are written (see {@link ServiceCalendar}),
+	 * and only the rows of calendar_dates.txt for that day.</p>
+	 * @param date The day, as {@code yyyyMMdd}
+	 * @return True if successful, false if the date is malformed or the trips or the calendars haven't been read
+	 */
+	public boolean setServiceDate(String date) {
+		ServiceCalendar calendar = fileList.getServiceCalendar();
+		if (!ServiceCalendar.isDate(date) || calendar == null || calendar.getTrips() == null)
+			return false;
+		restrictRows(calendar.getTrips(), calendar.getActiveTrips(date));
+		FileData calendarDates = fileList.getFile(ServiceCalendar.CALENDAR_DATES_FILE);
+		if (calendarDates != null) {
+			RowSelection dates = calendarDates.select(RowPredicate.eq("date", date));
+			if (dates != null)
+				restrictRows(calendarDates, dates);
+		}
+		return true;
+	}
+	
+	/**
+	 * <p>Restricts the export to a region: only the trips stopping at least once inside the region are written (with all of their stops),
+	 * and only the routes of those trips (see {@link StopIndex}).</p>
+	 * <p>It can be combined with {@link #setServiceDate(String)}: then only the trips satisfying both are written.</p>
+	 * @param minLat The lowest latitude of the region
+	 * @param minLon The lowest longitude of the region
+	 * @param maxLat The highest latitude of the region
+	 * @param maxLon The highest longitude of the region
+	 * @return True if successful, false if the stops, the stop times or the trips haven't been read
+	 */
+	public boolean setRegion(double minLat, double minLon, double maxLat, double maxLon) {
+		StopIndex stopIndex = fileList.getStopIndex();
+		FileData stopTimes = fileList.getFile(DepartureBoard.STOP_TIMES_FILE);
+		FileData trips = fileList.getFile(ServiceCalendar.TRIPS_FILE);
+		if (stopIndex == null || stopTimes == null || trips == null)
+			return false;
+		// the stops inside the region, then the trips stopping there, then their routes
+		RowSelection stops = stopIndex.getStopsInBox(minLat, minLon, maxLat, maxLon);
+		RowSelection stopTimesRows = stopTimes.select(RowPredicate.in("stop_id", collectValues(stopIndex.getStops(), stops, "stop_id")));
+		if (stopTimesRows == null)
+			return false;
+		RowSelection tripRows = trips.select(RowPredicate.in("trip_id", collectValues(stopTimes, stopTimesRows, "trip_id")));
+		if (tripRows == null)
+			return false;
+		restrictRows(trips, tripRows);
+		FileData routes = fileList.getFile(DepartureBoard.ROUTES_FILE);
+		if (routes != null) {
+			RowSelection routeRows = routes.select(RowPredicate.in("route_id", collectValues(trips, tripRows, "route_id")));
+			if (routeRows != null)
+				restrictRows(routes, routeRows);
+		}
+		return true;
+	}
+	
+	/**
+	 * Restricts the rows of a file to be written, keeping only the ones already allowed by a previous restriction, if any
+	 * @param file The file to be restricted
+	 * @param rows The rows of the file to be written
+	 */
+	private void restrictRows(FileData file, RowSelection rows) {
+		RowSelection previous = rowSelections.get(file);
+		rowSelections.put(file, (previous == null) ? rows : previous.and(rows));
+	}
+	
+	/**
+	 * Returns the distinct values of a column in some rows of a file
+	 * @param file The file
+	 * @param rows The rows to be read
+	 * @param title The title of the column
+	 * @return The values, an empty set if the title doesn't exist
+	 */
+	private static HashSet<String> collectValues(FileData file, RowSelection rows, String title) {
+		HashSet<String> values = new HashSet<String>();
+		int column = file.getTitleIndex(title);
+		if (column == -1)
+			return values;
+		for (int rowId = rows.nextRowId(0); rowId != -1; rowId = rows.nextRowId(rowId + 1)) {
+			if (column < file.getCellCount(rowId))
+				values.add(file.getValue(rowId, column));
+		}
+		return values;
+	}
+	
+	/**
+	 * <p>Enables the cache of the linked subtrees: once a linked subtree (like the agency of a route) has been written,
+	 * the next times it's needed its bytes are copied instead of being rendered again.</p>
+	 * <p>The cache is used only if the emitter can capture fragments (see {@link CapturingXMLEmitter}), like the default one.<br>
+	 * Only the subtrees of the links whose values repeat in their column are kept (see {@link RenderPlan#isLinkCacheable(int)}),
+	 * and only if they are at most {@value #MAX_FRAGMENT_SIZE} bytes long.<br>
+	 * With {@link #printAll(String, ExecutorService)} the bytes are split among one cache per thread.</p>
+	 * @param maxBytes The maximum number of bytes of the subtrees to be kept: the least recently used ones are discarded
+	 * @return True if the cache is enabled, false if the emitter doesn't support it
+	 */
+	public boolean enableFragmentCache(int maxBytes) {
+		if (!(writer instanceof CapturingXMLEmitter) || maxBytes <= 0)
+			return false;
+		fragmentCache = new FragmentCache(maxBytes);
+		fragmentCacheSize = maxBytes;
+		return true;
+	}
+	
+	/**
+	 * Returns how many linked subtrees have been copied from the cache
+	 * @return The number of hits, 0 if the cache isn't enabled
+	 */
+	public long getFragmentCacheHits() {
+		return (fragmentCache == null) ? 0 : fragmentCache.getHits();
+	}
+	
+	/**
+	 * Returns how many linked subtrees have been looked up in the cache without being found
+	 * @return The number of misses, 0 if the cache isn't enabled
+	 */
+	public long getFragmentCacheMisses() {
+		return (fragmentCache == null) ? 0 : fragmentCache.getMisses();
+	}
+	
 	/**
 	 * This method writes to file all of the data provided
 	 * It initializes the file, writes the root tag and starts printing all of the data in the starting file in the FileList
@@ -43,202 +265,455 @@ public class XMLFileWriter {
 	 * @return True if successful, false otherwise
 	 */
 	public boolean printAll(String rootTagName) {
-		FileData currentFile = fileList.getStartingFile();
 		try {
-			writer.writeStartElement(rootTagName); // start root tag
-			
-			if (!addAll(currentFile.getName(), currentFile.getRowTag(), ATT1, ATT2, currentFile.getValidTitles(), ATT1, ATT2)) 
+			RenderPlan plan = compilePlan();
+			if (!plan.isValid() || !startRoot(rootTagName)) {
+				abort();
 				return false;
+			}
+			FileData startingFile = plan.getFile();
+			RowView row = startingFile.newRowView();
+			startProgress(startingFile.getRowCount());
+			for (int rowId = 0; rowId < startingFile.getRowCount(); rowId++) {
+				row.moveTo(rowId);
+				if (!addRow(plan, row)) {
+					abort();
+					return false;
+				}
+				if (progress != null && progress.addRows(1))
+					progress.report(elementCount);
+			}
+			return endRoot();
+		} catch (Exception e) {
+			abort();
+			return false;
+		}
+	}
+	
+	/**
+	 * <p>This method writes to file all of the data provided like {@link #printAll(String)}, but renders the rows of the starting file on a pool of threads.</p>
+	 * @param rootTagName The name of the root tag in the file
+	 * @param threads The number of threads rendering the rows
+	 * @return True if successful, false otherwise
+	 */
+	public boolean printAll(String rootTagName, int threads) {
+		if (threads <= 1)
+			return printAll(rootTagName);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return printAll(rootTagName, executor, threads);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * <p>This method writes to file all of the data provided like {@link #printAll(String)}, but renders the rows of the starting file
+	 * as separate tasks of the given executor.</p>
+	 * <p>The rows are split in chunks, every chunk is rendered into its own buffer and the buffers are written in the original order,
+	 * so that the file is exactly the same as the one written by {@link #printAll(String)}.<br>
+	 * The fragment cache, if enabled, is split into one cache per processor, each with its share of the bytes:
+	 * every chunk borrows one of them while it's rendered.<br>
+	 * This works only if the emitter can write fragments (see {@link CapturingXMLEmitter}), like the default one:
+	 * with any other emitter the rows are rendered sequentially.</p>
+	 * @param rootTagName The name of the root tag in the file
+	 * @param executor The executor rendering the chunks (it won't be shut down by this method)
+	 * @return True if successful, false otherwise
+	 */
+	public boolean printAll(String rootTagName, ExecutorService executor) {
+		return printAll(rootTagName, executor, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Writes to file all of the data provided like {@link #printAll(String, ExecutorService)}
+	 * @param rootTagName The name of the root tag in the file
+	 * @param executor The executor rendering the chunks (it won't be shut down by this method)
+	 * @param parallelism The number of chunks expected to be rendered at the same time: the fragment cache is split into as many caches
+	 * @return True if successful, false otherwise
+	 */
+	private boolean printAll(String rootTagName, ExecutorService executor, int parallelism) {
+		if (!(writer instanceof CapturingXMLEmitter))
+			return printAll(rootTagName);
+		CapturingXMLEmitter capturingWriter = (CapturingXMLEmitter) writer;
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		final ConcurrentLinkedQueue<FragmentCache> caches = new ConcurrentLinkedQueue<FragmentCache>();
+		final AtomicLong chunkElements = new AtomicLong();
+		if (fragmentCache != null) {
+			for (int i = 0; i < parallelism; i++) {
+				caches.add(new FragmentCache(fragmentCacheSize / parallelism));
+			}
+		}
+		try {
+			final RenderPlan plan = compilePlan();
+			if (!plan.isValid()) {
+				abort();
+				return false;
+			}
+			plan.prepareIndexes();
+			if (!startRoot(rootTagName)) {
+				abort();
+				return false;
+			}
 			
+			// keeps at most MAX_PENDING_CHUNKS chunks in memory, writing them in order as soon as they are ready
+			int rowCount = plan.getFile().getRowCount();
+			int rowsWritten = 0;
+			startProgress(rowCount);
+			for (int start = 0; start < rowCount || !pending.isEmpty(); ) {
+				if (start < rowCount && pending.size() < MAX_PENDING_CHUNKS) {
+					final int from = start;
+					final int to = Math.min(rowCount, start + CHUNK_ROWS);
+					pending.add(executor.submit(new Callable<byte[]>() {
+						public byte[] call() {
+							return renderChunk(plan, from, to, caches, chunkElements);
+						}
+					}));
+					start = to;
+					continue;
+				}
+				byte[] chunk = pending.poll().get();
+				if (chunk == null) {
+					cancelAll(pending);
+					return false;
+				}
+				capturingWriter.writeFragment(chunk);
+				if (progress != null) {
+					int chunkRows = Math.min(CHUNK_ROWS, rowCount - rowsWritten);
+					rowsWritten += chunkRows;
+					if (progress.addRows(chunkRows))
+						progress.report(elementCount + chunkElements.get());
+				}
+			}
+			elementCount += chunkElements.get();
+			if (fragmentCache != null) {
+				for (FragmentCache cache : caches) {
+					fragmentCache.addCounts(cache);
+				}
+			}
+			return endRoot();
+		} catch (Exception e) {
+			cancelAll(pending);
+			return false;
+		}
+	}
+	
+	/**
+	 * Renders a chunk of rows of the starting file into a new buffer
+	 * @param plan The render plan of the starting file
+	 * @param from The first row of the chunk
+	 * @param to The row after the last one of the chunk
+	 * @param caches The free fragment caches: the chunk borrows one of them, or it's rendered without the cache if none is free
+	 * @param chunkElements The number of elements written by all of the chunks, increased by the ones of this chunk
+	 * @return The bytes of the chunk, or null if it can't be rendered
+	 */
+	private byte[] renderChunk(RenderPlan plan, int from, int to, ConcurrentLinkedQueue<FragmentCache> caches, AtomicLong chunkElements) {
+		FragmentCache cache = caches.poll();
+		try {
+			return renderChunk(plan, from, to, cache, chunkElements);
+		} finally {
+			if (cache != null)
+				caches.add(cache);
+		}
+	}
+	
+	private byte[] renderChunk(RenderPlan plan, int from, int to, FragmentCache cache, AtomicLong chunkElements) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FastXMLEmitter emitter = new FastXMLEmitter(out);
+		XMLFileWriter chunkWriter = new XMLFileWriter(fileList, emitter, cache, metrics);
+		chunkWriter.rowSelections = rowSelections;
+		RowView row = plan.getFile().newRowView();
+		try {
+			for (int rowId = from; rowId < to; rowId++) {
+				if (Thread.currentThread().isInterrupted())
+					return null;
+				row.moveTo(rowId);
+				if (!chunkWriter.addRow(plan, row))
+					return null;
+			}
+			emitter.close();
+		} catch (Exception e) {
+			return null;
+		}
+		chunkElements.addAndGet(chunkWriter.elementCount);
+		chunkWriter.reportCounts();
+		return out.toByteArray();
+	}
+	
+	private void cancelAll(ArrayDeque<Future<byte[]>> pending) {
+		for (Future<byte[]> future : pending) {
+			future.cancel(true);
+		}
+		abort();
+	}
+	
+	/**
+	 * Starts tracking the progress of the export, if a listener is set
+	 * @param totalRows The number of rows of the starting file
+	 */
+	private void startProgress(int totalRows) {
+		if (progressListener != null)
+			progress = new ProgressTracker(progressListener, totalRows, progressInterval);
+	}
+	
+	/**
+	 * Returns the number of elements written so far by this writer
+	 * @return The number of elements
+	 */
+	long getElementCount() {
+		return elementCount;
+	}
+	
+	/**
+	 * Compiles the render plan of the starting file, with the current settings of the files
+	 * The plan keeps working even if the settings are changed afterwards, see {@link RenderPlan}
+	 * @return The plan of the starting file
+	 */
+	RenderPlan compilePlan() {
+		return RenderPlan.compile(fileList, fileList.getStartingFile(), null, ATT1, ATT2, ATT1, ATT2);
+	}
+	
+	/**
+	 * Writes the root tag: the rows of the starting file can then be written one by one with {@link #addRow(RenderPlan, RowView)}
+	 * @param rootTagName The name of the root tag in the file
+	 * @return True if successful, false otherwise
+	 */
+	boolean startRoot(String rootTagName) {
+		startNanos = System.nanoTime();
+		try {
+			writer.writeStartElement(rootTagName); // start root tag
+			elementCount++;
+		} catch (Exception e) {
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Closes the root tag and the file
+	 * @return True if successful, false otherwise
+	 */
+	boolean endRoot() {
+		boolean successful = true;
+		try {
 			writer.writeEndElement();
 			writer.writeEndDocument();
-			writer.flush();
 			writer.close();
 		} catch (Exception e) {
-			return false;
+			successful = false;
 		}
-		return true;
+		reportExport(successful);
+		finishProgress(successful);
+		return successful;
 	}
 	
 	/**
-	 * Writes to file all of the data in the given file
-	 * @param fileName The name of the file
-	 * @param rowTag The tag to be used as a row tag surrounding all of the data for such row
-	 * @param rowAttribute The name of the attribute for the row tag (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
-	 * @param alternateRowAttribute The alternative name for the attribute of the row tag, if rowTag has no 'id' at the end
-	 * @param validTitles The list of valid titles (to be printed) in the file
-	 * @param titleAttribute The name of the attribute for every title (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
-	 * @param alternateTitleAttribute The alternative name for the attribute of every title, if rowTag has no 'id' at the end
-	 * @return True if successfull, false otherwise
+	 * Closes the file without completing it, after an error
+	 */
+	void abort() {
+		try {
+			writer.close();
+		} catch (Exception e) {
+			// the file is already incomplete
+		}
+		reportExport(false);
+		finishProgress(false);
+	}
+	
+	private void finishProgress(boolean successful) {
+		if (progress != null)
+			progress.finish(elementCount, successful);
+		progress = null;
+	}
+	
+	/**
+	 * Adds the counts of this writer to the metrics, if they are enabled, and sets them back to zero
 	 */
-	private boolean addAll(String fileName, String rowTag, String rowAttribute, String alternateRowAttribute, ArrayList<String> validTitles, String titleAttribute, String alternateTitleAttribute) {
-		return addAll(fileName, rowTag, rowAttribute, alternateRowAttribute, validTitles, titleAttribute, alternateTitleAttribute, null, null);
+	private void reportCounts() {
+		if (metrics == null)
+			return;
+		for (Map.Entry<String, long[]> link : linkTraversals.entrySet()) {
+			metrics.addLinkTraversals(link.getKey(), link.getValue()[0]);
+		}
+		metrics.addFilteredLookups(filteredLookups);
+		metrics.addSearchChecks(searchChecks, rowsFilteredOut);
+		linkTraversals.clear();
+		filteredLookups = 0;
+		searchChecks = 0;
+		rowsFilteredOut = 0;
 	}
-
+	
 	/**
-	 * Writes to file all of the data in the given file
-	 * This method call can contain a filter for the file
-	 * @param fileName The name of the file
-	 * @param rowTag The tag to be used as a row tag surrounding all of the data for such row
-	 * @param rowAttribute The name of the attribute for the row tag (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
-	 * @param alternateRowAttribute The alternative name for the attribute of the row tag, if rowTag has no 'id' at the end
-	 * @param validTitles The list of valid titles (to be printed) in the file
-	 * @param titleAttribute The name of the attribute for every title (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
-	 * @param alternateTitleAttribute The alternative name for the attribute of every title, if rowTag has no 'id' at the end
-	 * @param searchValue The only values to accept in the file
-	 * @param searchTitle The title for searchValue
-	 * @return True if successfull, false otherwise
+	 * Adds the metrics of the whole export, if they are enabled
+	 * @param successful True if the export is successful, false otherwise
 	 */
-	private boolean addAll(String fileName, String rowTag, String rowAttribute, String alternateRowAttribute, ArrayList<String> validTitles, String titleAttribute, String alternateTitleAttribute, String searchValue, String searchTitle) {
-		return addAll(fileName, rowTag, rowAttribute, alternateRowAttribute, validTitles, titleAttribute, alternateTitleAttribute, null, null, null);
+	private void reportExport(boolean successful) {
+		if (metrics == null)
+			return;
+		reportCounts();
+		if (fragmentCache != null)
+			metrics.addFragmentCacheCounts(fragmentCache.getHits(), fragmentCache.getMisses());
+		metrics.recordExport(outputName, elementCount, (byteCounter == null) ? -1 : byteCounter.getCount(), startNanos, System.nanoTime(), successful);
+		metrics = null; // an export is recorded only once
 	}
+	
 	/**
-	 * Writes to file all of the data in the given file
+	 * Writes to file all of the data in the given file, following its render plan
 	 * This method call can contain a filter for the file
-	 * This method call can contain a substitutive row name
-	 * @param fileName The name of the file
-	 * @param rowTag The tag to be used as a row tag surrounding all of the data for such row
-	 * @param rowAttribute The name of the attribute for the row tag (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
-	 * @param alternateRowAttribute The alternative name for the attribute of the row tag, if rowTag has no 'id' at the end
-	 * @param validTitles The list of valid titles (to be printed) in the file
-	 * @param titleAttribute The name of the attribute for every title (by default, 'id': if the rowTag has name 'service_id', it will be changed to <service id="...">)
-	 * @param alternateTitleAttribute The alternative name for the attribute of every title, if rowTag has no 'id' at the end
-	 * @param searchValue The only values to accept in the file
+	 * @param plan The render plan of the file (see {@link RenderPlan})
+	 * @param searchValue The only values to accept in the file, null to accept every row
 	 * @param searchTitle The title for searchValue
-	 * @param substituteRowName The name of the tag to substitute (only for the name, not for the behaviour) the row tag
 	 * @return True if successfull, false otherwise
 	 */
-	private boolean addAll(String fileName, String rowTag, String rowAttribute, String alternateRowAttribute, ArrayList<String> validTitles, String titleAttribute, String alternateTitleAttribute, String searchValue, String searchTitle, String substituteRowName) {
-		FileData currentFile;
-		// gets the FileData object
-		if (searchValue == null) {
-			currentFile = fileList.getFile(fileName); // plain file
+	private boolean addAll(RenderPlan plan, String searchValue, String searchTitle) {
+		if (!plan.isValid())
+			return false;
+		FileData currentFile = plan.getFile();
+		// gets the ids of the rows to be printed: every row for a plain file, the indexed matches for a filtered file
+		int[] rowIds = null;
+		if (searchValue != null) {
+			filteredLookups++;
+			rowIds = currentFile.getRowIds(searchValue, searchTitle);
+			if (rowIds == null)
+				return false;
 		}
-		else {
-			currentFile = fileList.getFile(fileName).cloneWithSomeValues(searchValue, searchTitle); // filtered file
+		try {
+			// loops through all of the rows of the file
+			RowView activeRow = currentFile.newRowView();
+			int rowCount = (rowIds == null) ? currentFile.getRowCount() : rowIds.length;
+			for (int rowNumber = 0; rowNumber < rowCount; rowNumber++) {
+				activeRow.moveTo(rowIds == null ? rowNumber : rowIds[rowNumber]);
+				if (!addRow(plan, activeRow))
+					return false;
+			}
+		} catch (Exception e) {
+			return false;
 		}
+		return true;
+	}
+	
+	/**
+	 * Writes to file a single row of a file, following its render plan, unless the search link of the file filters it out
+	 * @param plan The render plan of the file (see {@link RenderPlan})
+	 * @param activeRow The row to be written
+	 * @return True if successfull, false otherwise
+	 */
+	boolean addRow(RenderPlan plan, RowView activeRow) {
 		try {
-			ArrayList<String> fileTitles = currentFile.getTitles(); // the titles of the file
+			// row selection check
+			if (!rowSelections.isEmpty()) {
+				RowSelection selection = rowSelections.get(plan.getFile());
+				if (selection != null && !selection.contains(activeRow.getRowId()))
+					return true;
+			}
 			
-			// starts the control for search links
-			int searchCount = 0;
-			String titleOfControl = null;
-			FileData searchFile = null;
-			int valueToControlIndex = 0;
-			currentFile.startLinkOut();
-			while (currentFile.nextLink()) {
-				if (currentFile.isLinkSearch()) {
-					searchCount++;
-					if (searchCount > 1) break;
-					titleOfControl = currentFile.getLinkDestinationTitle();
-					searchFile = fileList.getFile(currentFile.getLinkDestinationFile());
-					valueToControlIndex = fileTitles.indexOf(currentFile.getLinkSourceTitle());
+			// search link check
+			if (plan.hasSearch()) {
+				searchChecks++;
+				if (!plan.matchesSearch(activeRow)) {
+					rowsFilteredOut++;
+					return true;
 				}
 			}
 			
-			if (searchCount > 1)
-				return false;
-			boolean isLinkSearching = (searchCount == 1);			
-			// end of check for search links
+			// writes the row element, if required
+			String rowTitle = plan.getRowTitle();
+			if (rowTitle != null) {
+				writer.writeStartElement(rowTitle); // start row tag
+				elementCount++;
+				if (plan.getRowAttributeName() != null)
+					writer.writeAttribute(plan.getRowAttributeName(), activeRow.get(plan.getRowAttributeColumn()));
+			}
 			
-			// loops through all of the rows of the file
-			while (currentFile.hasNextRow()) {
-				ArrayList<String> activeRow = currentFile.getNextRow();
-				
-				// search link check
-				boolean rowToPrint = true;
-				if (isLinkSearching) {
-					String valueToControl = activeRow.get(valueToControlIndex);
-					
-					FileData elaboratedSearchFile = searchFile.cloneWithSomeValues(valueToControl, titleOfControl);
-					
-					rowToPrint = elaboratedSearchFile.hasNextRow();
+			// handles writing the content of a row
+			for (int id = 0; id < activeRow.size(); id++) {
+				String val = activeRow.get(id);
+				// writes the inner data element
+				boolean visible = plan.isVisible(id);
+				if (visible) {
+					writer.writeStartElement(plan.getTagName(id));
+					elementCount++;
+					writer.writeAttribute(plan.getAttributeName(id), val);
 				}
-				
-				if (rowToPrint) {
-					// handles creating a new row
-					String rowTitle = null;
-					String rowAttributeName = null;
-					String attributeVal = null;
-					// writes the row element, if required
-					if ((rowTag != null || substituteRowName != null) && !NOT_PRINTING_ROW.equals(substituteRowName)) {
-						String usedRowTag = (rowTag == null) ? substituteRowName : rowTag;
-						ArrayList<String> rowSplit = new ArrayList<String>(Arrays.asList(usedRowTag.split("_")));
-						if (rowSplit.get(rowSplit.size() - 1).equals(rowAttribute) && rowSplit.size() > 1) {
-							rowTitle = usedRowTag.substring(0, usedRowTag.lastIndexOf('_'));
-							rowAttributeName = rowAttribute;
-						}
-						else {
-							rowTitle = usedRowTag;
-							rowAttributeName = alternateRowAttribute;
-						}
-						
-						if (substituteRowName != null) {
-							rowTitle = substituteRowName;
-						}
-						writer.writeStartElement(rowTitle); // start row tag
-	
-						int titleIndex = fileTitles.indexOf(rowTag == null ? usedRowTag : rowTag);
-						if (titleIndex != -1) {
-							attributeVal = activeRow.get(fileTitles.indexOf(usedRowTag));
-							writer.writeAttribute(rowAttributeName, attributeVal);
-						}
-					}
-					else if (substituteRowName == null) {
-						rowTitle = DEFAULT_ROW_TITLE;
-						writer.writeStartElement(rowTitle); // start row tag
-					}
-					else if (!NOT_PRINTING_ROW.equals(substituteRowName)) {
-						rowTitle = substituteRowName;
-					}
-					
-					// handles writing the content of a row
-					int id = 0;
-					for (String val : activeRow) {
-						String title = fileTitles.get(id);
-						// writes the inner data element
-						if (!title.equals(rowTag) && validTitles.contains(title)) {
-							ArrayList<String> titleSplit = new ArrayList<String>(Arrays.asList(title.split("_")));
-							String tagTitle;
-							String attribute;
-							if (titleSplit.get(titleSplit.size() - 1).equals(titleAttribute) && titleSplit.size() > 1) {
-								tagTitle = title.substring(0, title.lastIndexOf('_'));
-								attribute = titleAttribute;
-							}
-							else {
-								tagTitle = title;
-								attribute = alternateTitleAttribute;
-							}
-							writer.writeStartElement(tagTitle);
-							writer.writeAttribute(attribute, val);
-						}					
-						// checks if a link exists
-						if (currentFile.hasLinkFrom(title) && !currentFile.isLinkSearch()) {
-							FileData linkedFile = fileList.getFile(currentFile.getLinkDestinationFile());
-							String newRow = currentFile.getLinkRowName();
-							String subName = null;
-							if (newRow != null) {
-								subName = newRow;
-							}
-							newRow = linkedFile.getRowTag();								
-							if (!addAll(linkedFile.getName(), newRow, ATT1, ATT2, linkedFile.getValidTitles(), ATT1, ATT2, val, title, subName))
-								return false;
-						}
-						
-						if (!title.equals(rowTag) && validTitles.contains(title)) {
-							writer.writeEndElement(); // closes the single element inside a row
-						}
-						id++;
-					}
-					if (!NOT_PRINTING_ROW.equals(substituteRowName))
-						writer.writeEndElement(); // closes the row
+				// checks if a link exists
+				RenderPlan linkPlan = plan.getLinkPlan(id);
+				if (linkPlan != null) {
+					if (metrics != null)
+						countLinkTraversal(plan.getLinkName(id));
+					if (!addLinked(linkPlan, val, plan.getLinkSearchTitle(id), plan.isLinkCacheable(id)))
+						return false;
 				}
-			}			
+				if (visible) {
+					writer.writeEndElement(); // closes the single element inside a row
+				}
+			}
+			if (rowTitle != null)
+				writer.writeEndElement(); // closes the row
 		} catch (Exception e) {
 			return false;
 		}
 		return true;
 	}
 	
+	/**
+	 * Writes to file the subtree of a linked file, through the fragment cache if it's enabled
+	 * @param plan The render plan of the linked file
+	 * @param searchValue The value to be searched in the linked file
+	 * @param searchTitle The title for searchValue
+	 * @param cacheable False if the subtree can't be needed again, so it's never looked up nor stored in the cache
+	 * @return True if successfull, false otherwise
+	 */
+	private boolean addLinked(RenderPlan plan, String searchValue, String searchTitle, boolean cacheable) throws Exception {
+		if (fragmentCache == null || !cacheable)
+			return addAll(plan, searchValue, searchTitle);
+		
+		CapturingXMLEmitter capturingWriter = (CapturingXMLEmitter) writer;
+		FragmentCache.Fragment cached = fragmentCache.get(plan, searchTitle, searchValue);
+		if (cached != null) {
+			capturingWriter.writeFragment(cached.getBytes());
+			elementCount += cached.getElementCount();
+			return true;
+		}
+		long elementsBefore = elementCount;
+		capturingWriter.beginFragment();
+		boolean successful = addAll(plan, searchValue, searchTitle);
+		byte[] fragment = capturingWriter.endFragment();
+		if (successful && fragment.length <= MAX_FRAGMENT_SIZE)
+			fragmentCache.put(plan, searchTitle, searchValue, fragment, elementCount - elementsBefore);
+		return successful;
+	}
+	
+	private void countLinkTraversal(String linkName) {
+		long[] count = linkTraversals.get(linkName);
+		if (count == null) {
+			count = new long[1];
+			linkTraversals.put(linkName, count);
+		}
+		count[0]++;
+	}
+	
+	/**
+	 * Internal class counting the bytes written to a stream
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private long count = 0;
+		
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		
+		public long getCount() {
+			return count;
+		}
+	}
 	
 }